@@ -0,0 +1,147 @@
+package com.theserverlabs.maven.utplsq;
+
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Limits the number of package runs active at once, adjusting the limit to the latency the database
+ * shows. The limit starts at the minimum and grows by one after a limit's worth of healthy runs. A run
+ * which fails, or sees a latency over the tolerance times the lowest seen, halves the limit, at most
+ * once per limit's worth of runs so the runs already in flight don't collapse it. The sessions held by
+ * the runners are counted too, so that a runner closes its idle session while more are open than the limit.
+ */
+public class AdaptiveLimiter
+{
+    int minLimit;
+    int maxLimit;
+    double latencyTolerance;
+    Log log;
+
+    int limit;
+    int active;
+    int sessions;
+    long minLatency = Long.MAX_VALUE;
+    int healthy;
+    int sinceDecrease;
+
+    /**
+     * @param minLimit the lowest and starting number of active runs
+     * @param maxLimit the highest number of active runs
+     * @param latencyTolerance the latency, as a multiple of the lowest seen, from which the database is
+     *                         considered overloaded
+     * @param log
+     */
+    public AdaptiveLimiter(int minLimit,int maxLimit,double latencyTolerance,Log log)
+    {
+        this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.log = log;
+        limit = this.minLimit;
+        sinceDecrease = limit;
+    }
+
+    /**
+     * Waits until a run may start
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException
+    {
+        while (active >= limit)
+        {
+            wait();
+        }
+        active++;
+    }
+
+    /**
+     * Ends a run, adjusting the limit to its outcome
+     *
+     * @param latency the latency seen by the run in microseconds
+     * @param failed true if the run failed with an error
+     */
+    public synchronized void release(long latency,boolean failed)
+    {
+        active--;
+        sinceDecrease++;
+
+        if (!failed)
+        {
+            minLatency = Math.min(minLatency, latency);
+        }
+
+        if (failed || latency > Math.max(minLatency, 1) * latencyTolerance)
+        {
+            if (sinceDecrease >= limit && limit > minLimit)
+            {
+                int previous = limit;
+                limit = Math.max(minLimit, limit / 2);
+                log.info("Concurrency decreased from " + previous + " to " + limit +
+                         (failed ? " after an error" : ", latency " + latency / 1000.0 + "ms against " + minLatency / 1000.0 + "ms at best"));
+                sinceDecrease = 0;
+            }
+            healthy = 0;
+        }
+        else if (++healthy >= limit && limit < maxLimit)
+        {
+            limit++;
+            healthy = 0;
+            log.info("Concurrency increased to " + limit + ", latency " + latency / 1000.0 + "ms");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Counts a session opened by a runner
+     */
+    public synchronized void sessionOpened()
+    {
+        sessions++;
+    }
+
+    /**
+     * Counts a session closed by a runner
+     */
+    public synchronized void sessionClosed()
+    {
+        sessions--;
+    }
+
+    /**
+     * Called by a runner after its release, while it holds an idle session
+     *
+     * @return true if more sessions are open than the limit, the session is then counted as closed and
+     *         the runner must close it
+     */
+    public synchronized boolean releaseSession()
+    {
+        if (sessions > limit)
+        {
+            sessions--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit()
+    {
+        return limit;
+    }
+}
@@ -0,0 +1,182 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.apache.commons.io.IOUtils;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Captures the DBMS_OUTPUT written by a package run. The buffer is drained with GET_LINES
+ * in chunks of many lines, each chunk returned in one round trip as a temporary CLOB which
+ * is freed once read.
+ */
+public class DbmsOutput
+{
+    private static final String GET_LINES =
+          "declare "
+        + "  l_lines dbmsoutput_linesarray; "
+        + "  l_count integer := ?; "
+        + "  l_text  clob; "
+        + "begin "
+        + "  dbms_output.get_lines(l_lines, l_count); "
+        + "  dbms_lob.createtemporary(l_text, true); "
+        // a line may be 32767 characters, the newline is appended on its own
+        + "  for i in 1 .. l_count loop "
+        + "    if l_lines(i) is not null then "
+        + "      dbms_lob.writeappend(l_text, length(l_lines(i)), l_lines(i)); "
+        + "    end if; "
+        + "    dbms_lob.writeappend(l_text, 1, chr(10)); "
+        + "  end loop; "
+        + "  ? := l_text; "
+        + "  ? := l_count; "
+        + "end; ";
+
+    int chunkLines;
+    int maxChars;
+
+    /**
+     * @param chunkLines the number of lines fetched per round trip
+     * @param maxChars the size of the output kept in memory, the rest is spilled to file
+     */
+    public DbmsOutput(int chunkLines,int maxChars)
+    {
+        this.chunkLines = chunkLines;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Enables an unlimited output buffer for the session
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    public void enable(Connection conn) throws SQLException
+    {
+        CallableStatement stmt = conn.prepareCall("begin dbms_output.enable(null); end;");
+        try
+        {
+            stmt.execute();
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Disables the output buffer, discarding what it holds, so the output of a failed run doesn't show
+     * in the next. The next run enables it again.
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    public void discard(Connection conn) throws SQLException
+    {
+        CallableStatement stmt = conn.prepareCall("begin dbms_output.disable; end;");
+        try
+        {
+            stmt.execute();
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Reads and empties the output buffer. Output over the size cap is written in full to the
+     * spill file and only its start is returned.
+     *
+     * @param conn
+     * @param spillFile where output over the cap is written
+     * @return the output, or its start with a note on where to find the rest
+     * @throws SQLException
+     * @throws IOException
+     */
+    public String drain(Connection conn,File spillFile) throws SQLException, IOException
+    {
+        StringBuffer output = new StringBuffer();
+        Writer spill = null;
+
+        CallableStatement stmt = conn.prepareCall(GET_LINES);
+        try
+        {
+            int count;
+            do
+            {
+                stmt.setInt(1, chunkLines);
+                stmt.registerOutParameter(2, Types.CLOB);
+                stmt.registerOutParameter(3, Types.INTEGER);
+                stmt.execute();
+
+                count = stmt.getInt(3);
+                String chunk = readChunk(stmt.getClob(2));
+
+                if (spill == null && output.length() + chunk.length() > maxChars)
+                {
+                    spill = new FileWriter(spillFile);
+                    spill.write(output.toString());
+                    spill.write(chunk);
+                    
+                    // the output keeps the start of the chunk crossing the cap
+                    output.append(chunk.substring(0, maxChars - output.length()));
+                }
+                else if (spill != null)
+                {
+                    spill.write(chunk);
+                }
+                else
+                {
+                    output.append(chunk);
+                }
+            } while (count == chunkLines);
+        } finally
+        {
+            IOUtils.closeQuietly(spill);
+            stmt.close();
+        }
+
+        if (spill != null)
+        {
+            return output + "\n... output truncated at " + maxChars + " characters, full output in " + spillFile.getName();
+        }
+        return output.toString();
+    }
+
+    /**
+     * Reads the chunk and frees its temporary LOB, which would otherwise live as long as the session
+     */
+    private String readChunk(Clob clob) throws SQLException
+    {
+        if (clob == null)
+        {
+            return "";
+        }
+        try
+        {
+            return clob.getSubString(1, (int) clob.length());
+        } finally
+        {
+            clob.free();
+        }
+    }
+}
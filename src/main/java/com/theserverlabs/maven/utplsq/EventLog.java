@@ -0,0 +1,211 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Appends one JSON object per line for each event of a test run, flushed as the event happens, so
+ * tools can tail the progress of a run without parsing partial surefire reports. Every event has
+ * an event type and a ts in msecs since the epoch.
+ *
+ * Packages run concurrently by targets or workers write to the same log, so writes are synchronized.
+ * The log never fails the run, the first write which fails is reported and turns the log off.
+ */
+public class EventLog
+{
+    private Writer out;
+    private Log log;
+    private boolean runEnded;
+    private boolean failed;
+
+    /**
+     * @param file the log file, appended to
+     * @param log
+     * @throws IOException if the log file can't be opened
+     */
+    public EventLog(File file,Log log) throws IOException
+    {
+        this.log = log;
+        
+        if (file.getParentFile() != null)
+        {
+            file.getParentFile().mkdirs();
+        }
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+    }
+
+    public void runStart(String name,int packageCount)
+    {
+        StringBuffer sb = start("runStart");
+        field(sb, "name", name);
+        field(sb, "packages", packageCount);
+        write(sb);
+    }
+
+    /**
+     * @param suite the qualified suite name, as in the surefire report
+     */
+    public void packageStart(String suite)
+    {
+        StringBuffer sb = start("packageStart");
+        field(sb, "suite", suite);
+        write(sb);
+    }
+
+    public void testcase(String suite,DescContainer dc,String status)
+    {
+        StringBuffer sb = start("testcase");
+        field(sb, "suite", suite);
+        field(sb, "classname", dc.getProcedureName());
+        field(sb, "name", dc.getTestName());
+        field(sb, "status", status);
+        if ("FAILURE".equals(status))
+        {
+            field(sb, "message", dc.getResults());
+        }
+        write(sb);
+    }
+
+    public void packageEnd(String suite,long duration,int tests,int failures)
+    {
+        StringBuffer sb = start("packageEnd");
+        field(sb, "suite", suite);
+        field(sb, "duration", duration);
+        field(sb, "tests", tests);
+        field(sb, "failures", failures);
+        write(sb);
+    }
+
+    /**
+     * @param testResults the results of the run, null if the run failed before they were known
+     * @param duration
+     * @param status the verdict of the build, SUCCESS or FAILURE
+     */
+    public void runEnd(TestResults testResults,long duration,String status)
+    {
+        StringBuffer sb = start("runEnd");
+        field(sb, "status", status);
+        field(sb, "duration", duration);
+        if (testResults != null)
+        {
+            field(sb, "tests", testResults.getTestsRun());
+            field(sb, "failures", testResults.getFailures());
+            field(sb, "flakes", testResults.getFlakes());
+        }
+        write(sb);
+        runEnded = true;
+    }
+
+    /**
+     * Closes the log, recording the run as aborted if it did not end
+     */
+    public synchronized void close()
+    {
+        if (!runEnded)
+        {
+            StringBuffer sb = start("runEnd");
+            field(sb, "status", "ABORTED");
+            write(sb);
+        }
+        IOUtils.closeQuietly(out);
+    }
+
+    private StringBuffer start(String event)
+    {
+        StringBuffer sb = new StringBuffer(128);
+        sb.append("{\"event\":\"").append(event).append("\",\"ts\":").append(System.currentTimeMillis());
+        return sb;
+    }
+
+    private void field(StringBuffer sb,String name,long value)
+    {
+        sb.append(",\"").append(name).append("\":").append(value);
+    }
+
+    private void field(StringBuffer sb,String name,String value)
+    {
+        sb.append(",\"").append(name).append("\":");
+
+        if (value == null)
+        {
+            sb.append("null");
+            return;
+        }
+
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            switch (c)
+            {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20)
+                {
+                    String hex = Integer.toHexString(c);
+                    sb.append("\\u0000", 0, 6 - hex.length()).append(hex);
+                }
+                else
+                {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private synchronized void write(StringBuffer sb)
+    {
+        if (failed)
+        {
+            return;
+        }
+        
+        sb.append("}\n");
+        try
+        {
+            out.write(sb.toString());
+            out.flush();
+        } catch (IOException e)
+        {
+            failed = true;
+            log.warn("Could not write the utPLSQL event log, event log turned off: " + e.getMessage());
+        }
+    }
+}
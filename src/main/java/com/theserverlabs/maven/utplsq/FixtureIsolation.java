@@ -0,0 +1,216 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Isolates the fixture changes of each package run so that utPLSQL only needs to run ut_setup and
+ * ut_teardown once per package instead of around every test procedure. The changes are undone
+ * after the report is built, either by rolling back to a savepoint or, for packages which commit,
+ * by flashing the fixture tables back to a restore point.
+ *
+ * When the setup method asks for a setup around every test procedure, the saving is reported as the
+ * number of ut_setup and ut_teardown calls skipped, the test procedures of the package beyond the
+ * first, as timing them would mean running the fixture once more.
+ */
+public class FixtureIsolation
+{
+    public static final String SAVEPOINT = "savepoint";
+    public static final String FLASHBACK = "flashback";
+
+    String mode;
+    String[] tables;
+    String prefix;
+    Log log;
+
+    /**
+     * @param mode savepoint or flashback
+     * @param tables the tables flashed back, needed for flashback
+     * @param prefix the utPLSQL test package prefix
+     * @param log
+     */
+    public FixtureIsolation(String mode,String[] tables,String prefix,Log log)
+    {
+        this.mode = mode;
+        this.tables = tables == null ? new String[0] : tables;
+        this.prefix = prefix;
+        this.log = log;
+    }
+
+    /**
+     * @param packageName the name given to utPLSQL
+     * @param testMethod test or run, run is given the test package itself
+     * @return the name of the test package, qualified by the owner if the package name is
+     */
+    public String getTestPackage(String packageName,String testMethod)
+    {
+        if ("run".equalsIgnoreCase(testMethod))
+        {
+            return packageName;
+        }
+        // the prefix goes in front of the package, not the owner
+        int dot = packageName.indexOf('.');
+        return packageName.substring(0, dot + 1) + prefix + packageName.substring(dot + 1);
+    }
+
+    /**
+     * Marks the state to return to after the package run
+     *
+     * @param conn
+     * @param packageName
+     * @return the savepoint or the name of the restore point
+     * @throws SQLException
+     */
+    public Object begin(Connection conn,String packageName) throws SQLException
+    {
+        if (SAVEPOINT.equals(mode))
+        {
+            conn.setAutoCommit(false);
+            return conn.setSavepoint("UTP_FIXTURE");
+        }
+
+        String restorePoint = restorePointName(conn, packageName);
+        execute(conn, "create restore point " + restorePoint);
+        return restorePoint;
+    }
+
+    /**
+     * Returns to the state marked by begin. If the savepoint is gone, because the package committed,
+     * the whole transaction is rolled back before autocommit is switched back on
+     *
+     * @param conn
+     * @param testPackage
+     * @param mark from begin
+     * @throws SQLException
+     */
+    public void end(Connection conn,String testPackage,Object mark) throws SQLException
+    {
+        if (SAVEPOINT.equals(mode))
+        {
+            try
+            {
+                conn.rollback((Savepoint) mark);
+            } catch (SQLException e)
+            {
+                // a commit or DDL in the package ends the transaction and its savepoints
+                log.warn("Could not roll back the fixture changes of " + testPackage + ", the package commits: " + e.getMessage());
+                conn.rollback();
+            }
+            conn.setAutoCommit(true);
+        }
+        else
+        {
+            try
+            {
+                if (tables.length > 0)
+                {
+                    StringBuffer sql = new StringBuffer("flashback table ");
+                    for (int index = 0; index < tables.length; index++)
+                    {
+                        sql.append(index == 0 ? "" : ", ").append(tables[index]);
+                    }
+                    sql.append(" to restore point ").append(mark);
+                    execute(conn, sql.toString());
+                }
+            } finally
+            {
+                execute(conn, "drop restore point " + mark);
+            }
+        }
+    }
+
+    /**
+     * @param conn
+     * @param testPackage the test package, may be qualified by its owner
+     * @return the number of ut_setup and ut_teardown calls skipped by setting up once for the package
+     *         instead of around each test procedure
+     */
+    public int countSetupsSaved(Connection conn,String testPackage)
+    {
+        try
+        {
+            return Math.max(0, countTestProcedures(conn, testPackage) - 1);
+        } catch (SQLException e)
+        {
+            log.debug("Could not count the test procedures of " + testPackage + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private int countTestProcedures(Connection conn,String testPackage) throws SQLException
+    {
+        // utPLSQL runs the procedures named with the prefix, overloads run once
+        PreparedStatement stmt = conn.prepareStatement("select count(distinct procedure_name) from all_procedures " +
+                                                       "where owner = nvl(upper(?), user) and object_name = upper(?) " +
+                                                       "and substr(procedure_name, 1, length(?)) = upper(?) " +
+                                                       "and procedure_name not in ('UT_SETUP', 'UT_TEARDOWN')");
+        try
+        {
+            int dot = testPackage.indexOf('.');
+
+            stmt.setString(1, dot < 0 ? null : testPackage.substring(0, dot));
+            stmt.setString(2, testPackage.substring(dot + 1));
+            stmt.setString(3, prefix);
+            stmt.setString(4, prefix);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    private String restorePointName(Connection conn,String packageName) throws SQLException
+    {
+        // restore points are database wide, the session id and time keep concurrent and 
+        // overlapping runs of the same package apart
+        String sid;
+        Statement stmt = conn.createStatement();
+        try
+        {
+            ResultSet rs = stmt.executeQuery("select sys_context('userenv', 'sid') from dual");
+            rs.next();
+            sid = rs.getString(1);
+        } finally
+        {
+            stmt.close();
+        }
+
+        String unique = "_" + sid + "_" + Long.toString(System.currentTimeMillis(), 36).toUpperCase();
+        String name = "UTP_" + packageName.toUpperCase().replace('.', '_');
+        return (name.length() + unique.length() > 128 ? name.substring(0, 128 - unique.length()) : name) + unique;
+    }
+
+    private void execute(Connection conn,String sql) throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        try
+        {
+            stmt.execute(sql);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+}
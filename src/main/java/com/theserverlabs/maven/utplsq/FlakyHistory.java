@@ -0,0 +1,129 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Keeps count of the runs and flaky runs of each package in a properties file so
+ * the flakiness rate of a package can be followed across builds.
+ */
+public class FlakyHistory
+{
+    private static final String RUNS  = ".runs";
+    private static final String FLAKY = ".flaky";
+
+    File historyFile;
+    Properties history = new Properties();
+
+    /**
+     * Loads the history from the given file if it exists
+     *
+     * @param historyFile
+     * @throws IOException
+     */
+    public FlakyHistory(File historyFile) throws IOException
+    {
+        this.historyFile = historyFile;
+
+        if (historyFile.exists())
+        {
+            InputStream in = null;
+            try
+            {
+                in = new FileInputStream(historyFile);
+                history.load(in);
+            } finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Records a run of the package
+     *
+     * @param packageName
+     * @param flaky true if the package only passed on a re-run
+     */
+    public synchronized void record(String packageName,boolean flaky)
+    {
+        increment(packageName + RUNS);
+
+        if (flaky)
+        {
+            increment(packageName + FLAKY);
+        }
+    }
+
+    public int getRuns(String packageName)
+    {
+        return Integer.parseInt(history.getProperty(packageName + RUNS, "0"));
+    }
+
+    public int getFlakyRuns(String packageName)
+    {
+        return Integer.parseInt(history.getProperty(packageName + FLAKY, "0"));
+    }
+
+    /**
+     * @param packageName
+     * @return the percentage of recorded runs of the package which were flaky
+     */
+    public int getFlakyRate(String packageName)
+    {
+        int runs = getRuns(packageName);
+
+        return runs == 0 ? 0 : getFlakyRuns(packageName) * 100 / runs;
+    }
+
+    /**
+     * Writes the history back to its file
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException
+    {
+        if (historyFile.getParentFile() != null)
+        {
+            FileUtils.forceMkdir(historyFile.getParentFile());
+        }
+
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(historyFile);
+            history.store(out, "utPLSQL flaky package history");
+        } finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private void increment(String key)
+    {
+        int count = Integer.parseInt(history.getProperty(key, "0"));
+        history.setProperty(key, Integer.toString(count + 1));
+    }
+}
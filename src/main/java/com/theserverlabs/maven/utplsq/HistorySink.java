@@ -0,0 +1,250 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Writes every testcase outcome to a history table for trend analysis in SQL. The outcomes of a
+ * package are inserted in JDBC batches and committed together, on a background thread with its
+ * own connection, so the package runs and their reports never wait for the history. The first
+ * failure is logged and turns the sink off. Each row records the target the package ran against.
+ */
+public class HistorySink
+{
+    // characters, at most 4 bytes each in a 4000 byte column
+    private static final int MESSAGE_SIZE = 1000;
+    // seconds the build waits for the queued outcomes on close
+    private static final int CLOSE_TIMEOUT = 30;
+
+    Connection conn;
+    String table;
+    int batchSize;
+    Log log;
+    Timestamp runStarted;
+    ExecutorService writer;
+    volatile boolean failed;
+
+    /**
+     * Creates the history table if needed
+     *
+     * @param conn the connection the history is written on, closed with the sink
+     * @param table the history table, may be qualified by its owner
+     * @param batchSize the number of rows sent per round trip
+     * @param log
+     * @throws SQLException
+     */
+    public HistorySink(Connection conn,String table,int batchSize,Log log) throws SQLException
+    {
+        this.conn = conn;
+        this.table = table;
+        this.batchSize = Math.max(1, batchSize);
+        this.log = log;
+        runStarted = new Timestamp(System.currentTimeMillis());
+
+        conn.setAutoCommit(false);
+        createTable();
+
+        writer = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Queues the outcomes of a package for writing
+     *
+     * @param target the name of the database the package ran against, null for a single database
+     * @param suite the qualified suite name
+     * @param duration the package duration in msecs
+     * @param outcomes the DescContainer and status of each testcase, as Object[2]
+     */
+    public void write(final String target,final String suite,final long duration,final List outcomes)
+    {
+        if (failed || outcomes.isEmpty())
+        {
+            return;
+        }
+
+        writer.execute(new Runnable()
+        {
+            public void run()
+            {
+                if (failed)
+                {
+                    return;
+                }
+                try
+                {
+                    insert(target, suite, duration, outcomes);
+                } catch (SQLException e)
+                {
+                    failed = true;
+                    log.warn("Could not write the utPLSQL history to " + table + ", history turned off: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits a short while for the queued outcomes to be written and closes the connection
+     */
+    public void close()
+    {
+        writer.shutdown();
+        try
+        {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS))
+            {
+                log.warn("Gave up waiting for the utPLSQL history to be written after " + CLOSE_TIMEOUT + "s");
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            writer.shutdownNow();
+        }
+        try
+        {
+            conn.close();
+        } catch (SQLException e)
+        {
+        }
+    }
+
+    private void insert(String target,String suite,long duration,List outcomes) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("insert into " + table +
+                        " (run_started, target, suite, classname, testname, status, package_duration, message) values (?, ?, ?, ?, ?, ?, ?, ?)");
+        try
+        {
+            int pending = 0;
+
+            for (Iterator i = outcomes.iterator(); i.hasNext();)
+            {
+                Object[] outcome = (Object[]) i.next();
+                DescContainer dc = (DescContainer) outcome[0];
+                String status = (String) outcome[1];
+
+                stmt.setTimestamp(1, runStarted);
+                stmt.setString(2, target);
+                stmt.setString(3, suite);
+                stmt.setString(4, dc.getProcedureName());
+                stmt.setString(5, dc.getTestName());
+                stmt.setString(6, status);
+                stmt.setLong(7, duration);
+                stmt.setString(8, "SUCCESS".equals(status) ? null : StringUtils.left(dc.getResults(), MESSAGE_SIZE));
+                stmt.addBatch();
+
+                if (++pending == batchSize)
+                {
+                    stmt.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0)
+            {
+                stmt.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e)
+        {
+            conn.rollback();
+            throw e;
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    private void createTable() throws SQLException
+    {
+        // a qualified table is looked up in its owner's schema
+        int dot = table.indexOf('.');
+        String owner = dot < 0 ? null : table.substring(0, dot);
+        String name = table.substring(dot + 1);
+
+        int columns = countColumns(owner, name, null);
+
+        if (columns > 0)
+        {
+            if (countColumns(owner, name, "TARGET") == 0)
+            {
+                // created before the target was recorded
+                log.info("Adding the target column to utPLSQL history table " + table);
+                execute("alter table " + table + " add (target varchar2(128))");
+            }
+            return;
+        }
+
+        log.info("Creating utPLSQL history table " + table);
+
+        execute("create table " + table + " (run_started timestamp not null, target varchar2(128), suite varchar2(400) not null, " +
+                "classname varchar2(400), testname varchar2(400), status varchar2(10) not null, " +
+                "package_duration number, message varchar2(4000))");
+    }
+
+    /**
+     * @return the number of columns of the table, or only the given column if not null
+     */
+    private int countColumns(String owner,String name,String column) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("select count(*) from " + (owner == null ? "user_tab_columns" : "all_tab_columns") +
+                                                       " where table_name = upper(?)" + (column == null ? "" : " and column_name = ?") + 
+                                                       (owner == null ? "" : " and owner = upper(?)"));
+        try
+        {
+            int param = 1;
+            stmt.setString(param++, name);
+
+            if (column != null)
+            {
+                stmt.setString(param++, column);
+            }
+            if (owner != null)
+            {
+                stmt.setString(param++, owner);
+            }
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    private void execute(String sql) throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        try
+        {
+            stmt.execute(sql);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+}
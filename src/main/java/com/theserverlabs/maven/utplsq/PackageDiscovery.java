@@ -0,0 +1,178 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Finds the test packages of the connection schema matching include and exclude LIKE patterns,
+ * in a single data dictionary query. The names found can be cached in a file, one per line. Packages
+ * matched without the test package prefix, which utplsql.test can't be given, are skipped and kept
+ * for the caller to report.
+ */
+public class PackageDiscovery
+{
+    String[] includes;
+    String[] excludes;
+    List skipped = new ArrayList();
+
+    /**
+     * @param includes LIKE patterns of the test package names, such as UT_%
+     * @param excludes LIKE patterns of test package names left out, may be null
+     */
+    public PackageDiscovery(String[] includes,String[] excludes)
+    {
+        this.includes = includes;
+        this.excludes = excludes == null ? new String[0] : excludes;
+    }
+
+    /**
+     * Queries the test packages
+     *
+     * @param conn
+     * @param prefix the test package prefix stripped from the names, null to keep the test package names
+     * @return the names to give utPLSQL, in name order
+     * @throws SQLException
+     */
+    public List discover(Connection conn,String prefix) throws SQLException
+    {
+        List objectNames = new ArrayList();
+        PreparedStatement stmt = conn.prepareStatement(getQuery());
+        try
+        {
+            int param = 1;
+            for (int index = 0; index < includes.length; index++)
+            {
+                stmt.setString(param++, includes[index]);
+            }
+            for (int index = 0; index < excludes.length; index++)
+            {
+                stmt.setString(param++, excludes[index]);
+            }
+
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next())
+            {
+                objectNames.add(rs.getString(1));
+            }
+        } finally
+        {
+            stmt.close();
+        }
+        return toPackageNames(objectNames, prefix);
+    }
+
+    /**
+     * Strips the test package prefix from the names found, skipping those without it
+     *
+     * @param objectNames the upper case names of the test packages found
+     * @param prefix the test package prefix, null to keep the names
+     * @return the names to give utPLSQL
+     */
+    public List toPackageNames(List objectNames,String prefix)
+    {
+        List names = new ArrayList();
+        skipped.clear();
+
+        for (Iterator i = objectNames.iterator(); i.hasNext();)
+        {
+            String name = (String) i.next();
+
+            if (prefix == null)
+            {
+                names.add(name);
+            }
+            else if (name.startsWith(prefix.toUpperCase()))
+            {
+                names.add(name.substring(prefix.length()));
+            }
+            else
+            {
+                skipped.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the packages matched by the includes but skipped as they don't start with the test package prefix
+     */
+    public List getSkipped()
+    {
+        return skipped;
+    }
+
+    /**
+     * @return the data dictionary query, binding the includes and then the excludes
+     */
+    public String getQuery()
+    {
+        StringBuffer sql = new StringBuffer("select object_name from user_objects where object_type = 'PACKAGE' and (");
+
+        for (int index = 0; index < includes.length; index++)
+        {
+            sql.append(index == 0 ? "" : " or ").append("object_name like upper(?) escape '\\'");
+        }
+        sql.append(")");
+        for (int index = 0; index < excludes.length; index++)
+        {
+            sql.append(" and object_name not like upper(?) escape '\\'");
+        }
+        sql.append(" order by object_name");
+        return sql.toString();
+    }
+
+    /**
+     * @param cacheFile
+     * @return the cached names
+     * @throws IOException
+     */
+    public static List readCache(File cacheFile) throws IOException
+    {
+        List names = new ArrayList();
+
+        for (Iterator i = FileUtils.readLines(cacheFile, "UTF-8").iterator(); i.hasNext();)
+        {
+            String line = ((String) i.next()).trim();
+
+            if (line.length() > 0)
+            {
+                names.add(line);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param cacheFile
+     * @param names
+     * @throws IOException
+     */
+    public static void writeCache(File cacheFile,List names) throws IOException
+    {
+        FileUtils.writeLines(cacheFile, "UTF-8", names);
+    }
+}
@@ -0,0 +1,254 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The durations of the last accepted runs of each suite or package, stored in a properties file
+ * as a comma separated list of msecs, oldest first. A run is compared with the median of the
+ * accepted runs so a single noisy run neither hides nor raises a slowdown.
+ */
+public class PerformanceBaseline
+{
+    /**
+     * A suite or package which ran slower than its baseline
+     */
+    public static class Slowdown
+    {
+        private String name;
+        private long baseline;
+        private long duration;
+
+        public Slowdown(String name,long baseline,long duration)
+        {
+            this.name = name;
+            this.baseline = baseline;
+            this.duration = duration;
+        }
+        public String getName()
+        {
+            return name;
+        }
+        public long getBaseline()
+        {
+            return baseline;
+        }
+        public long getDuration()
+        {
+            return duration;
+        }
+        public String toString()
+        {
+            return name + " took " + duration + "ms against a baseline of " + baseline + "ms (+" +
+                   (baseline == 0 ? "" : (duration - baseline) * 100 / baseline + "%, +") + (duration - baseline) + "ms)";
+        }
+    }
+
+    Properties runs;
+
+    public PerformanceBaseline()
+    {
+        runs = new Properties();
+    }
+
+    /**
+     * Loads the baseline, an absent file is an empty baseline
+     *
+     * @param baselineFile
+     * @throws IOException
+     */
+    public PerformanceBaseline(File baselineFile) throws IOException
+    {
+        runs = load(baselineFile);
+    }
+
+    /**
+     * Adds the duration of a run to the baseline, keeping only the latest runs
+     *
+     * @param name the suite or package
+     * @param duration in msecs
+     * @param keep the number of runs to keep
+     */
+    public void add(String name,long duration,int keep)
+    {
+        List durations = new ArrayList(Arrays.asList(StringUtils.split(runs.getProperty(name, ""), ',')));
+        durations.add(Long.toString(duration));
+
+        while (durations.size() > keep)
+        {
+            durations.remove(0);
+        }
+        runs.setProperty(name, StringUtils.join(durations.iterator(), ','));
+    }
+
+    /**
+     * @param name the suite or package
+     * @return the median of the accepted durations or -1 if there are none
+     */
+    public long getMedian(String name)
+    {
+        String[] durations = StringUtils.split(runs.getProperty(name, ""), ',');
+
+        if (durations.length == 0)
+        {
+            return -1;
+        }
+
+        long[] values = new long[durations.length];
+        for (int index = 0; index < durations.length; index++)
+        {
+            values[index] = Long.parseLong(durations[index].trim());
+        }
+        Arrays.sort(values);
+
+        int middle = values.length / 2;
+
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * Finds the runs slower than the baseline by more than both the tolerance and the minimum delta
+     *
+     * @param durations msecs (Long) by suite or package name
+     * @param tolerance the allowed slowdown in percent of the baseline
+     * @param minimumDelta slowdowns of at most this many msecs are noise
+     * @return the slowdowns, worst first
+     */
+    public List compare(Map durations,int tolerance,long minimumDelta)
+    {
+        List slowdowns = new ArrayList();
+
+        for (Iterator i = durations.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String name = (String) entry.getKey();
+            long duration = ((Long) entry.getValue()).longValue();
+            long baseline = getMedian(name);
+
+            if (baseline >= 0 && duration - baseline > minimumDelta && (duration - baseline) * 100 > baseline * tolerance)
+            {
+                slowdowns.add(new Slowdown(name, baseline, duration));
+            }
+        }
+
+        Collections.sort(slowdowns, new Comparator()
+        {
+            public int compare(Object o1,Object o2)
+            {
+                Slowdown s1 = (Slowdown) o1;
+                Slowdown s2 = (Slowdown) o2;
+                long delta = (s2.getDuration() - s2.getBaseline()) - (s1.getDuration() - s1.getBaseline());
+
+                return delta > 0 ? 1 : (delta < 0 ? -1 : 0);
+            }
+        });
+        return slowdowns;
+    }
+
+    /**
+     * Writes the baseline to its file
+     *
+     * @param baselineFile
+     * @throws IOException
+     */
+    public void save(File baselineFile) throws IOException
+    {
+        store(runs, baselineFile, "utPLSQL performance baseline, msecs of the latest accepted runs");
+    }
+
+    /**
+     * Writes the durations of a run so it can later be accepted as baseline
+     *
+     * @param durations msecs (Long) by suite or package name
+     * @param durationsFile
+     * @throws IOException
+     */
+    public static void saveRun(Map durations,File durationsFile) throws IOException
+    {
+        Properties run = new Properties();
+
+        for (Iterator i = durations.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            run.setProperty((String) entry.getKey(), entry.getValue().toString());
+        }
+        store(run, durationsFile, "utPLSQL run durations in msecs");
+    }
+
+    /**
+     * @param durationsFile written by saveRun
+     * @return the msecs of each suite or package of the run
+     * @throws IOException
+     */
+    public static Properties loadRun(File durationsFile) throws IOException
+    {
+        return load(durationsFile);
+    }
+
+    private static Properties load(File file) throws IOException
+    {
+        Properties properties = new Properties();
+
+        if (file.exists())
+        {
+            InputStream in = null;
+            try
+            {
+                in = new FileInputStream(file);
+                properties.load(in);
+            } finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties,File file,String comment) throws IOException
+    {
+        if (file.getParentFile() != null)
+        {
+            FileUtils.forceMkdir(file.getParentFile());
+        }
+
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(file);
+            properties.store(out, comment);
+        } finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
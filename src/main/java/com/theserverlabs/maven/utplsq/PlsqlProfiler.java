@@ -0,0 +1,232 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Profiles the PL/SQL executed by a single package run with DBMS_HPROF or DBMS_PROFILER
+ * and writes the top subprograms to a hot-spot report. One instance is used per package run.
+ */
+public class PlsqlProfiler
+{
+    public static final String HPROF    = "hprof";
+    public static final String PROFILER = "profiler";
+
+    // ordered by self time, the subtree time replaces the order for the total time list
+    private static final String HPROF_HOT_SPOTS =
+          "select * from ("
+        + "  select owner, module, function, calls, function_elapsed_time, subtree_elapsed_time"
+        + "  from dbmshp_function_info where runid = ?"
+        + "  order by function_elapsed_time desc) "
+        + "where rownum <= ?";
+
+    // DBMS_PROFILER records line times in nanoseconds without call hierarchy, so self
+    // and total time are the same at unit level
+    private static final String PROFILER_HOT_SPOTS =
+          "select * from ("
+        + "  select u.unit_owner, u.unit_name, u.unit_type, sum(d.total_occur),"
+        + "         round(sum(d.total_time) / 1000), round(sum(d.total_time) / 1000)"
+        + "  from plsql_profiler_units u, plsql_profiler_data d"
+        + "  where u.runid = ? and d.runid = u.runid and d.unit_number = u.unit_number"
+        + "  group by u.unit_owner, u.unit_name, u.unit_type"
+        + "  order by sum(d.total_time) desc) "
+        + "where rownum <= ?";
+
+    String type;
+    String directory;
+    int hotSpotCount;
+    Log log;
+
+    String traceFile;
+    int runId;
+
+    /**
+     * @param type hprof or profiler
+     * @param directory the Oracle directory object DBMS_HPROF writes its trace to
+     * @param hotSpotCount the number of subprograms in the report
+     * @param log
+     */
+    public PlsqlProfiler(String type,String directory,int hotSpotCount,Log log)
+    {
+        this.type = type;
+        this.directory = directory;
+        this.hotSpotCount = hotSpotCount;
+        this.log = log;
+    }
+
+    /**
+     * Starts profiling the session
+     *
+     * @param conn
+     * @param packageName the package about to run
+     * @throws SQLException
+     */
+    public void start(Connection conn,String packageName) throws SQLException
+    {
+        CallableStatement stmt;
+
+        if (HPROF.equals(type))
+        {
+            traceFile = "utplsql_" + packageName + "_" + System.currentTimeMillis() + ".trc";
+
+            stmt = conn.prepareCall("begin dbms_hprof.start_profiling(location => ?, filename => ?); end;");
+            stmt.setString(1, directory);
+            stmt.setString(2, traceFile);
+        }
+        else
+        {
+            stmt = conn.prepareCall("declare l_run binary_integer; " +
+                                    "begin dbms_profiler.start_profiler(run_comment => ?, run_number => l_run); ? := l_run; end;");
+            stmt.setString(1, "utplsql " + packageName);
+            stmt.registerOutParameter(2, Types.NUMERIC);
+        }
+
+        try
+        {
+            stmt.execute();
+
+            if (!HPROF.equals(type))
+            {
+                runId = stmt.getInt(2);
+            }
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Stops profiling the session and makes the results available for the report
+     *
+     * @param conn
+     * @param packageName the package which ran
+     * @throws SQLException
+     */
+    public void stop(Connection conn,String packageName) throws SQLException
+    {
+        CallableStatement stmt;
+
+        if (HPROF.equals(type))
+        {
+            stmt = conn.prepareCall("begin dbms_hprof.stop_profiling; " +
+                                    "? := dbms_hprof.analyze(location => ?, filename => ?, run_comment => ?); end;");
+            stmt.registerOutParameter(1, Types.NUMERIC);
+            stmt.setString(2, directory);
+            stmt.setString(3, traceFile);
+            stmt.setString(4, "utplsql " + packageName);
+        }
+        else
+        {
+            stmt = conn.prepareCall("begin dbms_profiler.stop_profiler; end;");
+        }
+
+        try
+        {
+            stmt.execute();
+
+            if (HPROF.equals(type))
+            {
+                runId = stmt.getInt(1);
+            }
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Checks the profiler type
+     *
+     * @param type
+     * @return true for hprof or profiler
+     */
+    public static boolean isValidType(String type)
+    {
+        return HPROF.equals(type) || PROFILER.equals(type);
+    }
+
+    /**
+     * Writes the top subprograms by self time, then by total time, to the report file
+     *
+     * @param conn
+     * @param reportFile
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void writeReport(Connection conn,File reportFile) throws SQLException, IOException
+    {
+        FileWriter fw = null;
+        try
+        {
+            fw = new FileWriter(reportFile);
+            fw.append(type + " run " + runId + ", times in microseconds\n");
+
+            if (HPROF.equals(type))
+            {
+                writeHotSpots(conn, HPROF_HOT_SPOTS, "self time", fw);
+                writeHotSpots(conn, StringUtils.replace(HPROF_HOT_SPOTS, "order by function_elapsed_time", "order by subtree_elapsed_time"),
+                              "total time", fw);
+            }
+            else
+            {
+                writeHotSpots(conn, PROFILER_HOT_SPOTS, "self and total time, the same for DBMS_PROFILER units", fw);
+            }
+        } finally
+        {
+            IOUtils.closeQuietly(fw);
+        }
+
+        log.debug("Writing hot-spot report " + reportFile.getName());
+    }
+
+    private void writeHotSpots(Connection conn,String sql,String order,FileWriter fw) throws SQLException, IOException
+    {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try
+        {
+            stmt.setInt(1, runId);
+            stmt.setInt(2, hotSpotCount);
+            ResultSet rs = stmt.executeQuery();
+
+            fw.append("\nTop " + hotSpotCount + " by " + order + "\n\n");
+            fw.append(StringUtils.leftPad("self", 12) + StringUtils.leftPad("total", 12) +
+                      StringUtils.leftPad("calls", 10) + "  subprogram\n");
+
+            while (rs.next())
+            {
+                fw.append(StringUtils.leftPad(rs.getString(5), 12));
+                fw.append(StringUtils.leftPad(rs.getString(6), 12));
+                fw.append(StringUtils.leftPad(rs.getString(4), 10));
+                fw.append("  " + rs.getString(1) + "." + rs.getString(2) + "." + rs.getString(3) + "\n");
+            }
+        } finally
+        {
+            stmt.close();
+        }
+    }
+}
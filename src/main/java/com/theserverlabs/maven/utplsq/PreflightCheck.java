@@ -0,0 +1,207 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Checks before any test runs that utPLSQL is reachable and that every test package exists and is
+ * valid. Names are resolved as utPLSQL resolves them: in the owner given as owner.name or else the
+ * connection schema, then through private and public synonyms. All packages are checked in one
+ * query so that every problem is reported at once, in a single round trip.
+ *
+ * A program under test which is missing is only a warning, utPLSQL runs test packages whose
+ * program doesn't exist.
+ */
+public class PreflightCheck
+{
+    private static final String TEST_TYPES   = "'PACKAGE', 'PACKAGE BODY'";
+    private static final String TARGET_TYPES = "'PACKAGE', 'PACKAGE BODY', 'FUNCTION', 'PROCEDURE', 'TYPE'";
+
+    // the test package of a suite member is named by the member's own prefix, or is the member itself
+    private static final String SUITE_MEMBERS =
+          "(select nvl(upper(p.owner), user) owner, upper(p.name) name, "
+        + "        upper(case when p.samepackage = 'Y' then p.name else nvl(p.prefix, ?) || p.name end) test_name "
+        + " from ut_package p, ut_suite s where p.suite_id = s.id and upper(s.name) = upper(?)) n";
+
+    String prefix;
+    boolean checkTargets;
+    List warnings = new ArrayList();
+
+    /**
+     * @param prefix the utPLSQL test package prefix, usually ut_
+     * @param checkTargets false when the names are those of the test packages, as for the run method,
+     *                     true when they are the names of the programs under test
+     */
+    public PreflightCheck(String prefix,boolean checkTargets)
+    {
+        this.prefix = prefix.toUpperCase();
+        this.checkTargets = checkTargets;
+    }
+
+    /**
+     * Checks the packages or the members of the suite
+     *
+     * @param conn
+     * @param names the names given to utPLSQL, may be owner qualified, ignored if a suite is given
+     * @param suite the name of the suite, may be null
+     * @return a description of each problem found, empty if none
+     * @throws SQLException
+     */
+    public List check(Connection conn,String[] names,String suite) throws SQLException
+    {
+        List problems = new ArrayList();
+        warnings.clear();
+
+        if (suite == null && (names == null || names.length == 0))
+        {
+            return problems;
+        }
+
+        String testPrefix = checkTargets ? prefix : "";
+        StringBuffer sql = new StringBuffer("select n.owner, n.name, n.test_name, ");
+        sql.append(count("test_name", TEST_TYPES, false)).append(", ");
+        sql.append(count("test_name", TEST_TYPES, true)).append(", ");
+        sql.append(count("name", TARGET_TYPES, false)).append(", ");
+        sql.append(count("name", TARGET_TYPES, true)).append(", ");
+        sql.append("(select count(*) from all_objects o where o.object_name = 'UTPLSQL' and o.object_type = 'PACKAGE' and o.status = 'VALID') ");
+        sql.append("from ");
+
+        if (suite != null)
+        {
+            sql.append(SUITE_MEMBERS);
+        }
+        else
+        {
+            sql.append("(");
+            for (int index = 0; index < names.length; index++)
+            {
+                sql.append(index == 0 ? "select nvl(upper(?), user) owner, upper(?) name, upper(?) test_name from dual" : 
+                                        " union all select nvl(upper(?), user), upper(?), upper(?) from dual");
+            }
+            sql.append(") n");
+        }
+
+        PreparedStatement stmt = conn.prepareStatement(sql.toString());
+        try
+        {
+            int param = 1;
+
+            if (suite != null)
+            {
+                stmt.setString(param++, testPrefix);
+                stmt.setString(param++, suite);
+            }
+            else
+            {
+                for (int index = 0; index < names.length; index++)
+                {
+                    int dot = names[index].indexOf('.');
+                    String name = names[index].substring(dot + 1);
+
+                    stmt.setString(param++, dot < 0 ? null : names[index].substring(0, dot));
+                    stmt.setString(param++, name);
+                    stmt.setString(param++, testPrefix + name);
+                }
+            }
+
+            ResultSet rs;
+            try
+            {
+                rs = stmt.executeQuery();
+            } catch (SQLException e)
+            {
+                if (suite == null)
+                {
+                    throw e;
+                }
+                // the suite tables are part of the utPLSQL install
+                problems.add("utPLSQL is not installed or not reachable: " + e.getMessage());
+                return problems;
+            }
+            boolean utplsql = true;
+            int members = 0;
+
+            while (rs.next())
+            {
+                String owner = rs.getString(1);
+                String name = owner + "." + rs.getString(2);
+                String testPackage = owner + "." + rs.getString(3);
+                members++;
+
+                if (rs.getInt(4) == 0)
+                {
+                    problems.add("Test package " + testPackage + " does not exist or is not accessible");
+                }
+                else if (rs.getInt(5) > 0)
+                {
+                    problems.add("Test package " + testPackage + " is not valid");
+                }
+
+                if (checkTargets)
+                {
+                    if (rs.getInt(6) == 0)
+                    {
+                        warnings.add("Package, function or procedure " + name + " tested by " + testPackage + " does not exist");
+                    }
+                    else if (rs.getInt(7) > 0)
+                    {
+                        problems.add(name + " tested by " + testPackage + " is not valid");
+                    }
+                }
+
+                utplsql = rs.getInt(8) > 0;
+            }
+
+            if (!utplsql)
+            {
+                problems.add(0, "No valid UTPLSQL package is reachable from the connection schema");
+            }
+            if (suite != null && members == 0)
+            {
+                problems.add("Suite " + suite + " has no packages");
+            }
+        } finally
+        {
+            stmt.close();
+        }
+        return problems;
+    }
+
+    /**
+     * @return the findings of the last check which don't stop utPLSQL from running the tests
+     */
+    public List getWarnings()
+    {
+        return warnings;
+    }
+
+    /**
+     * Counts the objects the name resolves to, in the owner or through a private or public synonym
+     */
+    private static String count(String column,String types,boolean invalid)
+    {
+        return "(select count(*) from all_objects o where o.object_type in (" + types + ")" +
+               (invalid ? " and o.status != 'VALID'" : "") +
+               " and ((o.owner = n.owner and o.object_name = n." + column + ")" +
+               " or (o.owner, o.object_name) in (select s.table_owner, s.table_name from all_synonyms s" +
+               " where s.owner in (n.owner, 'PUBLIC') and s.synonym_name = n." + column + ")))";
+    }
+}
@@ -0,0 +1,188 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.SAXException;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Records each completed package of a run, with its run_id, counts and report file, so that an
+ * interrupted run can be resumed without re-running them. Each completed package is appended to
+ * the checkpoint file, so an interruption can at most cut short the package being recorded, which
+ * then runs again. The file is only rewritten when cleared, through a temporary file renamed over it.
+ * A package is only skipped on resume if its report still holds the recorded counts.
+ */
+public class RunCheckpoint
+{
+    private static final String RUN_ID   = ".runId";
+    private static final String TESTS    = ".tests";
+    private static final String FAILURES = ".failures";
+    private static final String REPORT   = ".report";
+
+    File checkpointFile;
+    Properties checkpoint = new Properties();
+
+    /**
+     * Loads the checkpoint from the given file if it exists
+     *
+     * @param checkpointFile
+     * @throws IOException
+     */
+    public RunCheckpoint(File checkpointFile) throws IOException
+    {
+        this.checkpointFile = checkpointFile;
+
+        if (checkpointFile.exists())
+        {
+            InputStream in = null;
+            try
+            {
+                in = new FileInputStream(checkpointFile);
+                checkpoint.load(in);
+            } finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Forgets the packages of an earlier run
+     *
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException
+    {
+        checkpoint.clear();
+        rewrite();
+    }
+
+    /**
+     * Records a completed package and appends it to the checkpoint
+     *
+     * @param suite the qualified suite name of the package
+     * @param testResults the results of the package
+     * @param report the surefire report of the package
+     * @throws IOException
+     */
+    public synchronized void record(String suite,TestResults testResults,File report) throws IOException
+    {
+        Properties entry = new Properties();
+        entry.setProperty(suite + RUN_ID, Integer.toString(testResults.getRunId()));
+        entry.setProperty(suite + TESTS, Integer.toString(testResults.getTestsRun()));
+        entry.setProperty(suite + FAILURES, Integer.toString(testResults.getFailures()));
+        entry.setProperty(suite + REPORT, report.getPath());
+
+        checkpoint.putAll(entry);
+
+        // later entries of a suite override earlier ones when the checkpoint is loaded
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        entry.store(bytes, null);
+
+        createParentDirectory();
+
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(checkpointFile, true);
+            out.write(bytes.toByteArray());
+        } finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Reads back the results of a completed package from its report
+     *
+     * @param suite the qualified suite name of the package
+     * @return the results, or null if the package did not complete or its report is missing or
+     * doesn't match the checkpoint
+     */
+    public synchronized TestResults restore(String suite)
+    {
+        String report = checkpoint.getProperty(suite + REPORT);
+
+        if (report == null || !new File(report).exists())
+        {
+            return null;
+        }
+
+        try
+        {
+            TestResults testResults = SurefireReportReader.read(new File(report));
+
+            if (Integer.toString(testResults.getTestsRun()).equals(checkpoint.getProperty(suite + TESTS)) &&
+                Integer.toString(testResults.getFailures()).equals(checkpoint.getProperty(suite + FAILURES)))
+            {
+                testResults.setRunId(Integer.parseInt(checkpoint.getProperty(suite + RUN_ID, "0")));
+                return testResults;
+            }
+        } catch (IOException e)
+        {
+            // the report can't be read, the package runs again
+        } catch (SAXException e)
+        {
+            // a report cut short by the interruption
+        }
+        return null;
+    }
+
+    private void rewrite() throws IOException
+    {
+        createParentDirectory();
+
+        // an interrupted write leaves the old checkpoint in place
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(temp);
+            checkpoint.store(out, "utPLSQL run checkpoint");
+        } finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+
+        if (!temp.renameTo(checkpointFile))
+        {
+            // renameTo doesn't replace an existing file on every platform
+            checkpointFile.delete();
+
+            if (!temp.renameTo(checkpointFile))
+            {
+                throw new IOException("Could not rename " + temp + " to " + checkpointFile);
+            }
+        }
+    }
+
+    private void createParentDirectory() throws IOException
+    {
+        if (checkpointFile.getParentFile() != null)
+        {
+            FileUtils.forceMkdir(checkpointFile.getParentFile());
+        }
+    }
+}
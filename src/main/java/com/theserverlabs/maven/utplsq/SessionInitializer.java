@@ -0,0 +1,112 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Prepares a session before any timed package run, so the first package doesn't pay for session
+ * setup and cold library cache loads: session settings, warm-up calls and pinning hot packages
+ * in the shared pool.
+ */
+public class SessionInitializer
+{
+    String[] sessionStatements;
+    String[] warmupStatements;
+    String[] keepPackages;
+    Log log;
+
+    /**
+     * @param sessionStatements statements such as ALTER SESSION run first, may be null
+     * @param warmupStatements SQL or PL/SQL blocks run next, may be null
+     * @param keepPackages packages pinned with DBMS_SHARED_POOL.KEEP, may be null
+     * @param log
+     */
+    public SessionInitializer(String[] sessionStatements,String[] warmupStatements,String[] keepPackages,Log log)
+    {
+        this.sessionStatements = sessionStatements == null ? new String[0] : sessionStatements;
+        this.warmupStatements = warmupStatements == null ? new String[0] : warmupStatements;
+        this.keepPackages = keepPackages == null ? new String[0] : keepPackages;
+        this.log = log;
+    }
+
+    /**
+     * @return true if there is nothing to do
+     */
+    public boolean isEmpty()
+    {
+        return sessionStatements.length == 0 && warmupStatements.length == 0 && keepPackages.length == 0;
+    }
+
+    /**
+     * Runs the session statements and warm-up calls and pins the packages. A package which can't be
+     * pinned, usually for lack of the execute privilege on DBMS_SHARED_POOL, is only warned about.
+     *
+     * @param conn
+     * @return the time taken in msecs
+     * @throws SQLException if a session or warm-up statement fails
+     */
+    public long initialize(Connection conn) throws SQLException
+    {
+        long start = System.currentTimeMillis();
+
+        Statement stmt = conn.createStatement();
+        try
+        {
+            for (int index = 0; index < sessionStatements.length; index++)
+            {
+                log.debug("Session init: " + sessionStatements[index]);
+                stmt.execute(sessionStatements[index]);
+            }
+            for (int index = 0; index < warmupStatements.length; index++)
+            {
+                log.debug("Warm-up: " + warmupStatements[index]);
+                stmt.execute(warmupStatements[index]);
+            }
+        } finally
+        {
+            stmt.close();
+        }
+
+        if (keepPackages.length > 0)
+        {
+            CallableStatement keep = conn.prepareCall("begin sys.dbms_shared_pool.keep(?, 'P'); end;");
+            try
+            {
+                for (int index = 0; index < keepPackages.length; index++)
+                {
+                    try
+                    {
+                        keep.setString(1, keepPackages[index]);
+                        keep.execute();
+                    } catch (SQLException e)
+                    {
+                        log.warn("Could not keep " + keepPackages[index] + " in the shared pool: " + e.getMessage());
+                    }
+                }
+            } finally
+            {
+                keep.close();
+            }
+        }
+
+        return System.currentTimeMillis() - start;
+    }
+}
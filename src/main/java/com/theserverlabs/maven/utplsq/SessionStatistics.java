@@ -0,0 +1,124 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Snapshots the statistics of the current session from V$MYSTAT so the server side resource
+ * use of a package run can be reported.
+ */
+public class SessionStatistics
+{
+    /**
+     * The statistics collected unless configured otherwise, CPU is in centiseconds
+     */
+    public static final String[] DEFAULT_STATISTICS = { "CPU used by this session",
+                                                        "consistent gets",
+                                                        "db block gets",
+                                                        "physical reads",
+                                                        "redo size",
+                                                        "parse count (total)",
+                                                        "parse count (hard)" };
+
+    String[] names;
+    String query;
+
+    /**
+     * @param names the V$STATNAME names of the statistics to collect
+     */
+    public SessionStatistics(String[] names)
+    {
+        this.names = names;
+
+        StringBuffer sb = new StringBuffer();
+        sb.append("select n.name, s.value from v$mystat s, v$statname n ");
+        sb.append("where s.statistic# = n.statistic# and n.name in (");
+        for (int index = 0; index < names.length; index++)
+        {
+            sb.append(index == 0 ? "?" : ", ?");
+        }
+        sb.append(")");
+        query = sb.toString();
+    }
+
+    /**
+     * Reads the current values of the statistics
+     *
+     * @param conn the session to read
+     * @return the values by statistic name, in configured order
+     * @throws SQLException
+     */
+    public Map snapshot(Connection conn) throws SQLException
+    {
+        Map values = new LinkedHashMap();
+        PreparedStatement stmt = conn.prepareStatement(query);
+        try
+        {
+            for (int index = 0; index < names.length; index++)
+            {
+                stmt.setString(index + 1, names[index]);
+            }
+
+            Map found = new LinkedHashMap();
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next())
+            {
+                found.put(rs.getString(1), Long.valueOf(rs.getLong(2)));
+            }
+
+            for (int index = 0; index < names.length; index++)
+            {
+                if (found.containsKey(names[index]))
+                {
+                    values.put(names[index], found.get(names[index]));
+                }
+            }
+        } finally
+        {
+            stmt.close();
+        }
+        return values;
+    }
+
+    /**
+     * @param before
+     * @param after
+     * @return the increase of each statistic between the two snapshots
+     */
+    public static Map delta(Map before,Map after)
+    {
+        Map delta = new LinkedHashMap();
+
+        for (Iterator i = after.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            Long start = (Long) before.get(entry.getKey());
+
+            if (start != null)
+            {
+                delta.put(entry.getKey(), Long.valueOf(((Long) entry.getValue()).longValue() - start.longValue()));
+            }
+        }
+        return delta;
+    }
+}
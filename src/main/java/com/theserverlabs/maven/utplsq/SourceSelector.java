@@ -0,0 +1,177 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Selects the test packages affected by changed PL/SQL source files. The names of the objects
+ * a file defines are taken from its CREATE [OR REPLACE] headers, no database access is needed.
+ */
+public class SourceSelector
+{
+    private static final Pattern CREATE_HEADER = Pattern.compile(
+                    "\\bCREATE\\s+(?:OR\\s+REPLACE\\s+)?(?:(?:NON)?EDITIONABLE\\s+)?" +
+                    "(?:PACKAGE(?:\\s+BODY)?|PROCEDURE|FUNCTION|TYPE(?:\\s+BODY)?|TRIGGER|VIEW)\\s+" +
+                    "(?:\"?[\\w$#]+\"?\\s*\\.\\s*)?\"?([\\w$#]+)\"?",
+                    Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Finds the names of the objects defined in the source
+     *
+     * @param source the content of a PL/SQL source file
+     * @return the upper case names of the objects created by the source
+     */
+    public static Set parseDefinedNames(String source)
+    {
+        Set names = new HashSet();
+        Matcher m = CREATE_HEADER.matcher(stripComments(source));
+
+        while (m.find())
+        {
+            names.add(m.group(1).toUpperCase());
+        }
+        return names;
+    }
+
+    /**
+     * Blanks out the comments and the text of the string literals of the source
+     *
+     * @param source
+     * @return the source without -- and /* comments or literal text
+     */
+    static String stripComments(String source)
+    {
+        StringBuffer sb = new StringBuffer(source.length());
+        int length = source.length();
+        int index = 0;
+
+        while (index < length)
+        {
+            char c = source.charAt(index);
+
+            if (c == '\'')
+            {
+                // the text of the literal is left out too, a doubled quote within it reads as two literals
+                int end = source.indexOf('\'', index + 1);
+                index = end < 0 ? length : end + 1;
+                sb.append("''");
+            }
+            else if (source.startsWith("--", index))
+            {
+                int end = source.indexOf('\n', index);
+                index = end < 0 ? length : end;
+            }
+            else if (source.startsWith("/*", index))
+            {
+                int end = source.indexOf("*/", index + 2);
+                index = end < 0 ? length : end + 2;
+                sb.append(' ');
+            }
+            else
+            {
+                sb.append(c);
+                index++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Finds the source files in a directory modified after the given time
+     *
+     * @param sourceDirectory
+     * @param extensions the source file extensions
+     * @param since time in msecs, 0 to return every source file
+     * @return the changed files
+     */
+    public static List findChangedFiles(File sourceDirectory,String[] extensions,long since)
+    {
+        List changed = new ArrayList();
+
+        if (!sourceDirectory.isDirectory())
+        {
+            return changed;
+        }
+
+        Collection files = FileUtils.listFiles(sourceDirectory, extensions, true);
+
+        for (Iterator i = files.iterator(); i.hasNext();)
+        {
+            File f = (File) i.next();
+
+            if (f.lastModified() > since)
+            {
+                changed.add(f);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reads the given files and collects the names of the objects they define
+     *
+     * @param files
+     * @return the upper case object names
+     * @throws IOException
+     */
+    public static Set parseDefinedNames(List files) throws IOException
+    {
+        Set names = new HashSet();
+
+        for (Iterator i = files.iterator(); i.hasNext();)
+        {
+            names.addAll(parseDefinedNames(FileUtils.readFileToString((File) i.next())));
+        }
+        return names;
+    }
+
+    /**
+     * Selects the packages whose tested object or test package is in the changed names
+     *
+     * @param packages the configured packages
+     * @param changedNames upper case names of the changed objects
+     * @param prefix the utPLSQL test package prefix, such as ut_
+     * @return the packages to test, in configured order
+     */
+    public static String[] select(String[] packages,Set changedNames,String prefix)
+    {
+        List selected = new ArrayList();
+        String testPrefix = StringUtils.defaultString(prefix).toUpperCase();
+
+        for (int index = 0; index < packages.length; index++)
+        {
+            String name = packages[index].toUpperCase();
+
+            if (changedNames.contains(name) || changedNames.contains(testPrefix + name))
+            {
+                selected.add(packages[index]);
+            }
+        }
+        return (String[]) selected.toArray(new String[selected.size()]);
+    }
+}
@@ -7,9 +7,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.logging.Log;
 
@@ -36,6 +40,10 @@ public class SureFireReport
 {
     File surefireDir;
     Log log;
+    String targetName;
+    EventLog eventLog;
+    TraceRecorder traceRecorder;
+    HistorySink historySink;
     
     /**
      * Formats utplsql results into a surefire xml report
@@ -50,6 +58,39 @@ public class SureFireReport
         this.log = log;   
         surefireDir = outputDir;
     }
+    
+    /**
+     * @param targetName the name of the database the tests ran against, prefixed to the report 
+     * name. May be null for a single database.
+     */
+    public void setTargetName(String targetName)
+    {
+        this.targetName = targetName;
+    }
+    
+    /**
+     * @param eventLog where each testcase and the end of each package are logged, may be null
+     */
+    public void setEventLog(EventLog eventLog)
+    {
+        this.eventLog = eventLog;
+    }
+    
+    /**
+     * @param traceRecorder where the outcome fetch and the report write are recorded, may be null
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder)
+    {
+        this.traceRecorder = traceRecorder;
+    }
+    
+    /**
+     * @param historySink where the outcomes of each package are recorded, may be null
+     */
+    public void setHistorySink(HistorySink historySink)
+    {
+        this.historySink = historySink;
+    }
       
     /**
      * Given the run_id of a test package run, create a report in surefire XML format.
@@ -77,14 +118,50 @@ public class SureFireReport
                               String suiteOrPackageName,
                               long   duration) throws SQLException,IOException, SplitterException
     {
+        return build(conn, runId, suiteOrPackageName, duration, new TestResults());
+    }
+    
+    /**
+     * Given the run_id of a test package run, create a report in surefire XML format adding the
+     * results to the given test results. 
+     * 
+     * @param conn
+     *            the connection to the database
+     * @param runId
+     *            the test run ID
+     * @param suiteOrPackageName
+     *            the suite or package name
+     * @param duration
+     *            time in msecs taken to run the suite/package
+     * @param testResult
+     *            the results to populate, may hold the failures of earlier runs of the package
+     *            
+     * @throws SQLException
+     *             if there was a problem getting the report data from the database
+     * @throws IOException
+     *             if there was a problem outputting the report to the filesystem
+     * @throws SplitterException
+     *             if there was a problem generating the report
+     * 
+     * @return retrieved results
+     */
+    public  TestResults build(Connection  conn, 
+                              int         runId, 
+                              String      suiteOrPackageName,
+                              long        duration,
+                              TestResults testResult) throws SQLException,IOException, SplitterException
+    {
+        long fetchStart = traceRecorder == null ? 0 : traceRecorder.now();
+        long parseTime = 0;
+        
         // Fetch the utPLSQL results from the db
         // test run.
         PreparedStatement stmt = conn.prepareStatement("select status, description from utr_outcome where run_id = ? order by outcome_id DESC");
         stmt.setInt(1, runId);
         ResultSet rs = stmt.executeQuery();
         DescContainer dc;
-        
-        TestResults testResult = new TestResults();
+        int tests = 0, failures = 0;
+        List outcomes = historySink == null ? null : new ArrayList();
           
         while (rs.next())
         {
@@ -98,14 +175,61 @@ public class SureFireReport
             // contained in the description
             // (the utPLSQL schema doesn't seem to be well normalised ;-) )
             
+            long parseStart = traceRecorder == null ? 0 : traceRecorder.now();
+            
             dc = ResultSplitter.split(desc);
             
             addTestResults(status,dc,testResult);
-             
+            
+            if (traceRecorder != null)
+            {
+                parseTime += traceRecorder.now() - parseStart;
+            }
+            
+            if (outcomes != null)
+            {
+                outcomes.add(new Object[] { dc, status });
+            }
+            
+            if (eventLog != null)
+            {
+                eventLog.testcase(getSuiteName(suiteOrPackageName), dc, status);
+                tests++;
+                failures += "SUCCESS".equals(status) ? 0 : 1;
+            }
         }
 
+        testResult.getDurations().put(getSuiteName(suiteOrPackageName), Long.valueOf(duration));
+        testResult.setRunId(runId);
+        
+        long writeStart = 0;
+        if (traceRecorder != null)
+        {
+            // the parse time is spent within the fetch span, between rows
+            Map args = new LinkedHashMap();
+            args.put("runId", Integer.valueOf(runId));
+            args.put("parseMicros", Long.valueOf(parseTime));
+            traceRecorder.span("fetch outcomes " + getSuiteName(suiteOrPackageName), "fetch", fetchStart, args);
+            writeStart = traceRecorder.now();
+        }
+        
         writeXML(testResult,suiteOrPackageName,duration);
         
+        if (traceRecorder != null)
+        {
+            traceRecorder.span("write xml " + getSuiteName(suiteOrPackageName), "write", writeStart);
+        }
+        
+        if (historySink != null)
+        {
+            historySink.write(targetName, getSuiteName(suiteOrPackageName), duration, outcomes);
+        }
+        
+        if (eventLog != null)
+        {
+            eventLog.packageEnd(getSuiteName(suiteOrPackageName), duration, tests, failures);
+        }
+        
         return testResult;
     }
     /**
@@ -115,8 +239,9 @@ public class SureFireReport
      * @param dc a decoded utplsql description
      * @param testResult populated with failures and latest success/failure count
      * @throws SplitterException
+     * @throws IOException
      */
-    protected void addTestResults(String status,DescContainer dc,TestResults tr) throws SplitterException
+    protected void addTestResults(String status,DescContainer dc,TestResults tr) throws SplitterException, IOException
     {
         // work out if the test was a success or failure
         // (only statuses possible in utPLSQL)
@@ -129,34 +254,109 @@ public class SureFireReport
             tr.incFailureCounter();
         }
 
-        // generate the XML for each test executed and add it to a
-        // string buffer that we'll later write to a file
-        tr.getTestXML().append("\n   <testcase classname=\"" + 
-                                  dc.getProcedureName()+ "\" ");
+        // generate the XML for each test executed, escaping straight into
+        // the buffer that we'll later write to a file
+        XmlEscapingWriter xml = new XmlEscapingWriter(tr.getTestWriter());
         
-        // Remove Quotes to make text more readable
-        tr.getTestXML().append("name=\"" + StringEscapeUtils.escapeXml(dc.getTestName()) + "\" ");
-        tr.getTestXML().append("time=\""+dc.getDuration()+"\"");
-        tr.getTestXML().append(">");
+        xml.writeRaw("\n   <testcase classname=\"");
+        xml.write(dc.getProcedureName());
+        xml.writeRaw("\" name=\"");
+        xml.write(dc.getTestName());
+        xml.writeRaw("\" time=\"");
+        xml.write(dc.getDuration());
+        xml.writeRaw("\">");
 
-        if ("FAILURE".equals(status))
+        boolean failed = "FAILURE".equals(status);
+        
+        if (failed)
         {
-            tr.getTestXML().append("\n       <failure type=\""+dc.getType()+"\"");
-            
-            tr.getTestXML().append(" message=\"");
-            
-            String resultsMinusQuotes = StringUtils.remove(dc.getResults(),'"');
-            tr.getTestXML().append(StringEscapeUtils.escapeXml(resultsMinusQuotes));
-            
-            tr.getTestXML().append("\"/>\n   ");
+            writeFailure("failure", dc, xml);
 
             tr.getFailureDescriptions().add(
                             dc.getProcedureName()+"\n"+
                             dc.getTestName()+"\n"+
                             dc.getResults());
+            
+            tr.getFailedTests().add(dc);
         }
 
-        tr.getTestXML().append("</testcase>");
+        // failures of the same test in earlier runs are reported as surefire does
+        // for re-runs, after the failure of the last run. A test which passes now is flaky
+        boolean rerun = addRerunFailures(dc, "SUCCESS".equals(status) ? "flakyFailure" : "rerunFailure", tr, xml);
+        
+        if (rerun && "SUCCESS".equals(status))
+        {
+            tr.incFlakyCounter();
+        }
+        
+        if (failed || rerun)
+        {
+            xml.writeRaw("\n   ");
+        }
+
+        xml.writeRaw("</testcase>");
+    }
+    /**
+     * Adds an element for each failure of the given test in an earlier run of the package
+     * 
+     * @param dc the decoded description of the test
+     * @param element flakyFailure or rerunFailure
+     * @param tr the results holding the failures of the earlier runs
+     * @param xml where the elements are written
+     * @return true if the test failed in an earlier run
+     * @throws IOException
+     */
+    protected boolean addRerunFailures(DescContainer dc,String element,TestResults tr,XmlEscapingWriter xml) throws IOException
+    {
+        boolean found = false;
+        
+        for (Iterator i = tr.getPreviousFailures().iterator(); i.hasNext();)
+        {
+            DescContainer previous = (DescContainer) i.next();
+            
+            if (StringUtils.equals(previous.getProcedureName(), dc.getProcedureName()) && 
+                StringUtils.equals(previous.getTestName(), dc.getTestName()))
+            {
+                writeFailure(element, previous, xml);
+                found = true;
+            }
+        }
+        return found;
+    }
+    /**
+     * Writes a failure element
+     */
+    private void writeFailure(String element,DescContainer dc,XmlEscapingWriter xml) throws IOException
+    {
+        xml.writeRaw("\n       <" + element + " type=\"");
+        xml.write(dc.getType());
+        xml.writeRaw("\" message=\"");
+        // Remove Quotes to make text more readable
+        xml.writeWithoutQuotes(dc.getResults());
+        xml.writeRaw("\"/>");
+    }
+    /**
+     * @param suiteOrPackageName
+     * @return the name of the suite in the report, qualified by the target name if any
+     */
+    public String getSuiteName(String suiteOrPackageName)
+    {
+        return targetName == null ? suiteOrPackageName : targetName + "." + suiteOrPackageName;
+    }
+    /**
+     * Names a file written next to the surefire reports
+     * 
+     * @param suiteOrPackageName
+     * @param suffix the end of the file name, including the extension
+     * @return the file in the surefire report directory
+     */
+    public File getReportFile(String suiteOrPackageName,String suffix)
+    {
+        if (targetName != null)
+        {
+            return new File(surefireDir, "utplsql-" + targetName + "-" + suiteOrPackageName + suffix);
+        }
+        return new File(surefireDir, "utplsql-" + suiteOrPackageName + suffix);
     }
     /**
      * Writes the test xml with a header to the surefire report directory
@@ -171,22 +371,60 @@ public class SureFireReport
         // XML header element. Note that utPLSL does not provide any
         // timing info.
         
-        String reportFile = "utplsql-" + suiteOrPackageName + "-report.xml";
+        File f = getReportFile(suiteOrPackageName, "-report.xml");
+        String reportFile = f.getName();
+        
+        suiteOrPackageName = getSuiteName(suiteOrPackageName);
+        Map statistics = (Map) testResults.getStatistics().get(suiteOrPackageName);
         
         FileWriter fw = null;
         try
         {
-            File f = new File(surefireDir, reportFile);
             fw = new FileWriter(f);
-            fw.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
-            fw.append("\n<testsuite name=\"" + suiteOrPackageName + "\" "); 
-            fw.append("tests=\"");
-            fw.append(Integer.toString(testResults.getTestsRun()));
-            fw.append("\" failures=\"");
-            fw.append(Integer.toString(testResults.getFailures()));
-            fw.append("\" skipped=\"0\" errors=\"0\" time=\""+duration+"msec\">");
-            fw.append(testResults.getTestXML().toString());
-            fw.append("\n</testsuite>");
+            XmlEscapingWriter xml = new XmlEscapingWriter(fw);
+            
+            xml.writeRaw("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
+            xml.writeRaw("\n<testsuite name=\"");
+            xml.write(suiteOrPackageName);
+            xml.writeRaw("\" tests=\"");
+            xml.writeRaw(Integer.toString(testResults.getTestsRun()));
+            xml.writeRaw("\" failures=\"");
+            xml.writeRaw(Integer.toString(testResults.getFailures()));
+            xml.writeRaw("\" skipped=\"0\" errors=\"0\" time=\""+duration+"msec\">");
+            
+            if (statistics != null)
+            {
+                // server side resource use of the run
+                xml.writeRaw("\n   <properties>");
+                
+                for (Iterator i = statistics.entrySet().iterator(); i.hasNext();)
+                {
+                    Map.Entry entry = (Map.Entry) i.next();
+                    xml.writeRaw("\n      <property name=\"");
+                    xml.write((String) entry.getKey());
+                    xml.writeRaw("\" value=\"" + entry.getValue() + "\"/>");
+                }
+                xml.writeRaw("\n   </properties>");
+            }
+            
+            // copy the test xml, already escaped, without turning it into a string
+            StringBuffer testXML = testResults.getTestXML();
+            char[] chunk = new char[8192];
+            
+            for (int start = 0; start < testXML.length(); start += chunk.length)
+            {
+                int end = Math.min(start + chunk.length, testXML.length());
+                testXML.getChars(start, end, chunk, 0);
+                fw.write(chunk, 0, end - start);
+            }
+            
+            if (testResults.getSystemOut() != null)
+            {
+                xml.writeRaw("\n   <system-out>");
+                xml.write(testResults.getSystemOut());
+                xml.writeRaw("</system-out>");
+            }
+            xml.writeRaw("\n</testsuite>");
             
         } finally
         {
@@ -0,0 +1,179 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reads the counts, failures and duration back from a surefire report written by SureFireReport.
+ * The report is streamed with SAX rather than parsed into a document, but every testcase is copied
+ * into the test xml of the results, so the results hold the testcases of the report as text.
+ */
+public class SurefireReportReader extends DefaultHandler
+{
+    private static final SAXParserFactory FACTORY = SAXParserFactory.newInstance();
+
+    private TestResults testResults;
+    private XmlEscapingWriter xml;
+    private DescContainer testcase;
+    private boolean failed;
+    private boolean rerunFailed;
+
+    /**
+     * Reads a report
+     *
+     * @param report the utplsql-*-report.xml file
+     * @return the counts and failures of the report, with its duration by suite name
+     * @throws IOException
+     * @throws SAXException if the report is not well formed
+     */
+    public static TestResults read(File report) throws IOException, SAXException
+    {
+        SurefireReportReader reader = new SurefireReportReader();
+        try
+        {
+            SAXParser parser;
+            synchronized (FACTORY)
+            {
+                parser = FACTORY.newSAXParser();
+            }
+            parser.parse(report, reader);
+        } catch (ParserConfigurationException e)
+        {
+            throw new SAXException(e);
+        }
+        return reader.testResults;
+    }
+
+    public void startDocument()
+    {
+        testResults = new TestResults();
+        xml = new XmlEscapingWriter(testResults.getTestWriter());
+    }
+
+    public void startElement(String uri,String localName,String qName,Attributes attributes) throws SAXException
+    {
+        if ("testsuite".equals(qName))
+        {
+            String time = attributes.getValue("time");
+            long duration = 0;
+
+            if (time != null)
+            {
+                try
+                {
+                    duration = Long.parseLong(time.endsWith("msec") ? time.substring(0, time.length() - 4) : time);
+                } catch (NumberFormatException e)
+                {
+                    // not written by this plugin, leave the duration out
+                }
+            }
+            testResults.getDurations().put(attributes.getValue("name"), Long.valueOf(duration));
+        }
+        else if ("testcase".equals(qName))
+        {
+            testcase = new DescContainer();
+            testcase.setProcedureName(attributes.getValue("classname"));
+            testcase.setTestName(attributes.getValue("name"));
+            testcase.setDuration(attributes.getValue("time"));
+            failed = false;
+            rerunFailed = false;
+
+            writeXml("\n      <testcase classname=\"", testcase.getProcedureName());
+            writeXml("\" name=\"", testcase.getTestName());
+            writeXml("\" time=\"", testcase.getDuration());
+            writeXml("\">", null);
+        }
+        else if ("failure".equals(qName) && testcase != null)
+        {
+            testcase.setType(attributes.getValue("type"));
+            testcase.setResults(attributes.getValue("message"));
+            failed = true;
+
+            writeFailure(qName, attributes);
+        }
+        else if (("flakyFailure".equals(qName) || "rerunFailure".equals(qName)) && testcase != null)
+        {
+            rerunFailed = true;
+
+            writeFailure(qName, attributes);
+        }
+    }
+
+    public void endElement(String uri,String localName,String qName) throws SAXException
+    {
+        if ("testcase".equals(qName) && testcase != null)
+        {
+            writeXml(failed || rerunFailed ? "\n      </testcase>" : "</testcase>", null);
+
+            if (failed)
+            {
+                testResults.incFailureCounter();
+                testResults.getFailureDescriptions().add(testcase.getProcedureName() + "\n" +
+                                                         testcase.getTestName() + "\n" +
+                                                         testcase.getResults());
+                testResults.getFailedTests().add(testcase);
+            }
+            else
+            {
+                testResults.incSuccessCounter();
+
+                if (rerunFailed)
+                {
+                    testResults.incFlakyCounter();
+                }
+            }
+            testcase = null;
+        }
+    }
+
+    /**
+     * Copies a failure element of the current testcase
+     */
+    private void writeFailure(String element,Attributes attributes) throws SAXException
+    {
+        writeXml("\n         <" + element + " type=\"", attributes.getValue("type"));
+        writeXml("\" message=\"", attributes.getValue("message"));
+        writeXml("\"/>", null);
+    }
+
+    /**
+     * Appends markup and, if not null, an escaped value to the test xml
+     */
+    private void writeXml(String markup,String value) throws SAXException
+    {
+        try
+        {
+            xml.writeRaw(markup);
+
+            if (value != null)
+            {
+                xml.write(value);
+            }
+        } catch (IOException e)
+        {
+            throw new SAXException(e);
+        }
+    }
+}
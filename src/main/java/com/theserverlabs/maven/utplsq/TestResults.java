@@ -1,6 +1,11 @@
 package com.theserverlabs.maven.utplsq;
 
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /*
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -25,10 +30,25 @@ public class TestResults
 {
         private int successCounter = 0;
         private int failureCounter = 0;
+        private int flakyCounter = 0;
 
         private ArrayList failureDescriptions = new ArrayList();
         
-        private StringBuffer testXML = new StringBuffer();
+        private ArrayList failedTests = new ArrayList();
+        
+        private ArrayList previousFailures = new ArrayList();
+        
+        private LinkedHashMap durations = new LinkedHashMap();
+        
+        private LinkedHashMap statistics = new LinkedHashMap();
+        
+        private String systemOut;
+        
+        private int fixtureSetupsSaved;
+        
+        private int runId;
+        
+        private StringWriter testXML = new StringWriter();
  
         public void incSuccessCounter()
         {
@@ -38,6 +58,10 @@ public class TestResults
         {
             failureCounter++;
         }
+        public void incFlakyCounter()
+        {
+            flakyCounter++;
+        }
     
         public int getTestsRun()
         {
@@ -53,15 +77,39 @@ public class TestResults
         { 
             return successCounter;
         }
+        
+        /**
+         * @return the number of tests which failed in an earlier run of the package but passed on a re-run
+         */
+        public int getFlakes()
+        {
+            return flakyCounter;
+        }
 
         public StringBuffer getTestXML()
         {
-            return testXML;
+            return testXML.getBuffer();
         }
 
+        /**
+         * Replaces the test xml with a copy of the given one
+         * 
+         * @param resultsXML
+         * @deprecated write to getTestWriter() instead
+         */
         public void setTestXML(StringBuffer resultsXML)
         {
-            this.testXML = resultsXML;
+            StringBuffer buffer = testXML.getBuffer();
+            buffer.setLength(0);
+            buffer.append(resultsXML);
+        }
+
+        /**
+         * @return a writer appending to the test xml
+         */
+        public Writer getTestWriter()
+        {
+            return testXML;
         }   
         public ArrayList getFailureDescriptions()
         {
@@ -71,6 +119,91 @@ public class TestResults
         {
             this.failureDescriptions = failureDescriptions;
         }        
+        /**
+         * @return the decoded descriptions (DescContainer) of the failed tests
+         */
+        public ArrayList getFailedTests()
+        {
+            return failedTests;
+        }
+        /**
+         * @return the failed tests (DescContainer) of earlier runs of the same package, used to
+         *         report re-runs in the surefire xml
+         */
+        public ArrayList getPreviousFailures()
+        {
+            return previousFailures;
+        }
+        public void setPreviousFailures(ArrayList previousFailures)
+        {
+            this.previousFailures = previousFailures;
+        }
+        
+        /**
+         * @return the time in msecs each suite or package took to run, by suite name qualified by the target name
+         */
+        public LinkedHashMap getDurations()
+        {
+            return durations;
+        }
+        
+        /**
+         * @return the total time in msecs the suites or packages took to run 
+         */
+        public long getDuration()
+        {
+            long total = 0;
+            
+            for (Iterator i = durations.values().iterator(); i.hasNext();)
+            {
+                total += ((Long) i.next()).longValue();
+            }
+            return total;
+        }
+        
+        /**
+         * @return the session statistics deltas (statistic name to Long) of each suite or package, by name
+         */
+        public LinkedHashMap getStatistics()
+        {
+            return statistics;
+        }
+        
+        /**
+         * @return the DBMS_OUTPUT of the run written to the report, or null if not captured
+         */
+        public String getSystemOut()
+        {
+            return systemOut;
+        }
+        public void setSystemOut(String systemOut)
+        {
+            this.systemOut = systemOut;
+        }
+        
+        /**
+         * @return the number of setup and teardown calls saved by isolating the fixtures
+         */
+        public int getFixtureSetupsSaved()
+        {
+            return fixtureSetupsSaved;
+        }
+        public void addFixtureSetupsSaved(int setups)
+        {
+            fixtureSetupsSaved += setups;
+        }
+        
+        /**
+         * @return the utPLSQL run_id of the package run, not merged
+         */
+        public int getRunId()
+        {
+            return runId;
+        }
+        public void setRunId(int runId)
+        {
+            this.runId = runId;
+        }
         
         /**
          * Merges several test results together to provide an overview
@@ -81,7 +214,21 @@ public class TestResults
         {
             successCounter += other.successCounter;
             failureCounter += other.failureCounter;
+            flakyCounter += other.flakyCounter;
+            fixtureSetupsSaved += other.fixtureSetupsSaved;
             failureDescriptions.addAll(other.failureDescriptions);
+            failedTests.addAll(other.failedTests);
+            // the durations are keyed by the qualified suite name, a suite run twice, 
+            // for example listed twice and run by two workers, adds up
+            for (Iterator i = other.durations.entrySet().iterator(); i.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                Long duration = (Long) durations.get(entry.getKey());
+                
+                durations.put(entry.getKey(), duration == null ? entry.getValue() : 
+                              Long.valueOf(duration.longValue() + ((Long) entry.getValue()).longValue()));
+            }
+            statistics.putAll(other.statistics);
         }
 
 }
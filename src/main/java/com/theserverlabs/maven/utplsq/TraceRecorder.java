@@ -0,0 +1,177 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Records timed spans of a run with the thread they ran on and writes them in the Chrome trace
+ * event format, which chrome://tracing and Perfetto open as a timeline per thread.
+ *
+ * A span is recorded once it ends, from the start time taken with now().
+ */
+public class TraceRecorder
+{
+    private final long origin = System.nanoTime();
+    private final List events = new ArrayList();
+    private final Map threadNames = new HashMap();
+
+    /**
+     * @return the current time in microseconds since the recorder was created
+     */
+    public long now()
+    {
+        return (System.nanoTime() - origin) / 1000;
+    }
+
+    /**
+     * Records a span ending now
+     *
+     * @param name
+     * @param category connect, execute, fetch, write...
+     * @param start the start time from now()
+     */
+    public void span(String name,String category,long start)
+    {
+        span(name, category, start, null);
+    }
+
+    /**
+     * Records a span ending now with arguments shown when it is selected
+     *
+     * @param name
+     * @param category
+     * @param start the start time from now()
+     * @param args numbers or strings by name, may be null
+     */
+    public void span(String name,String category,long start,Map args)
+    {
+        long end = now();
+        Thread thread = Thread.currentThread();
+
+        StringBuffer sb = new StringBuffer(128);
+        sb.append("{\"name\":");
+        quote(sb, name);
+        sb.append(",\"cat\":");
+        quote(sb, category);
+        sb.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(thread.getId());
+        sb.append(",\"ts\":").append(start).append(",\"dur\":").append(end - start);
+
+        if (args != null && !args.isEmpty())
+        {
+            sb.append(",\"args\":{");
+            for (Iterator i = args.entrySet().iterator(); i.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                quote(sb, (String) entry.getKey());
+                sb.append(':');
+                if (entry.getValue() instanceof Number)
+                {
+                    sb.append(entry.getValue());
+                }
+                else
+                {
+                    quote(sb, String.valueOf(entry.getValue()));
+                }
+                sb.append(i.hasNext() ? "," : "");
+            }
+            sb.append('}');
+        }
+        sb.append('}');
+
+        synchronized (this)
+        {
+            events.add(sb.toString());
+
+            if (!threadNames.containsKey(Long.valueOf(thread.getId())))
+            {
+                threadNames.put(Long.valueOf(thread.getId()), thread.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the spans recorded so far, with the thread names
+     *
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void write(File file) throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try
+        {
+            out.write("{\"traceEvents\":[");
+
+            for (Iterator i = threadNames.entrySet().iterator(); i.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                StringBuffer sb = new StringBuffer("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+                sb.append(entry.getKey()).append(",\"args\":{\"name\":");
+                quote(sb, (String) entry.getValue());
+                sb.append("}},");
+                out.write(sb.toString());
+            }
+
+            for (Iterator i = events.iterator(); i.hasNext();)
+            {
+                out.write("\n");
+                out.write((String) i.next());
+                out.write(i.hasNext() ? "," : "");
+            }
+            out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        } finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private static void quote(StringBuffer sb,String value)
+    {
+        sb.append('"');
+        for (int i = 0; value != null && i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\')
+            {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                sb.append(' ');
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
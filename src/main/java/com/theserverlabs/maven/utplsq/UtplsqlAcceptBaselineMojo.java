@@ -0,0 +1,62 @@
+package com.theserverlabs.maven.utplsq;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Mojo which contains a goal that accepts the durations of the last run of the execute goal into the 
+ * performance baseline, dropping the oldest accepted run of each package beyond baselineRuns.
+ *
+ * @goal accept-baseline
+ */
+public class UtplsqlAcceptBaselineMojo extends UtplsqlMojo
+{
+    /**
+     * Add the last run to the baseline.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        if (!runDurationsFile.exists())
+        {
+            throw new MojoExecutionException("No run to accept, " + runDurationsFile + " not found. Please run the execute goal first, " +
+                                             "only a run without failures can be accepted");
+        }
+
+        try
+        {
+            Properties run = PerformanceBaseline.loadRun(runDurationsFile);
+            PerformanceBaseline baseline = new PerformanceBaseline(baselineFile);
+
+            for (Iterator i = run.entrySet().iterator(); i.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                baseline.add((String) entry.getKey(), Long.parseLong((String) entry.getValue()), baselineRuns);
+            }
+
+            baseline.save(baselineFile);
+
+            getLog().info("Accepted durations of " + run.size() + " packages into baseline " + baselineFile);
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not update baseline", e);
+        }
+    }
+}
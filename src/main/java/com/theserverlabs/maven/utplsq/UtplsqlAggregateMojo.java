@@ -0,0 +1,267 @@
+package com.theserverlabs.maven.utplsq;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.xml.sax.SAXException;
+
+/**
+ * Mojo which contains a goal that merges the utPLSQL surefire reports of every module of the reactor into one
+ * summary and one combined report. The goal runs once for the whole reactor, call it after the modules are built, 
+ * for example mvn verify utplsql:aggregate. The reports are stream-parsed in parallel and their testcases are
+ * held in memory until the combined report is written, so the memory used grows with the reports of the reactor.
+ *
+ * @goal aggregate
+ * @aggregator
+ */
+public class UtplsqlAggregateMojo extends UtplsqlMojo
+{
+    /**
+     * @parameter expression="${reactorProjects}"
+     * @required
+     * @readonly
+     */
+    private List reactorProjects;
+
+    /**
+     * The number of reports parsed at once. Defaults to the number of processors.
+     *
+     * @parameter
+     */
+    private Integer aggregateThreads;
+
+    /**
+     * The combined report of all modules.
+     *
+     * @parameter default-value="${project.build.directory}/utplsql-aggregate.xml"
+     */
+    private File aggregateReport;
+
+    /**
+     * Merge the reports of the reactor.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        List reports = findReports();
+        int threads = aggregateThreads != null ? aggregateThreads.intValue() : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try
+        {
+            long start = System.currentTimeMillis();
+            List futures = new ArrayList();
+            String[] names = new String[reports.size()];
+
+            for (int index = 0; index < reports.size(); index++)
+            {
+                final File report = ((File[]) reports.get(index))[1];
+                names[index] = report.getName();
+
+                futures.add(executor.submit(new Callable()
+                {
+                    public Object call() throws Exception
+                    {
+                        try
+                        {
+                            return SurefireReportReader.read(report);
+                        } catch (SAXException e)
+                        {
+                            throw new IOException("Could not parse " + report + ": " + e.getMessage());
+                        }
+                    }
+                }));
+            }
+
+            List results = readAll(futures, names);
+            TestResults testResults = new TestResults();
+
+            for (Iterator i = results.iterator(); i.hasNext();)
+            {
+                testResults.append((TestResults) i.next());
+            }
+
+            getLog().info("Aggregated " + reports.size() + " utPLSQL reports in " + (System.currentTimeMillis() - start) + "ms");
+
+            logModuleSummary(reports, results);
+
+            writeAggregateReport(reports, results, testResults);
+
+            reportAndJudge(testResults, "utplsql:Aggregated " + reports.size() + " reports of " + reactorProjects.size() + " modules", "aggregate");
+
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not aggregate reports", e);
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the reports being read
+     *
+     * @param futures the readers, in the order of the reports
+     * @param names the names of the reports, for the error messages
+     * @return the results of each report
+     * @throws IOException if a report could not be read
+     */
+    private List readAll(List futures,String[] names) throws IOException
+    {
+        List results = new ArrayList();
+
+        for (int index = 0; index < futures.size(); index++)
+        {
+            try
+            {
+                results.add(((Future) futures.get(index)).get());
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + names[index]);
+            } catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException("Report " + names[index] + " could not be read", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Lists the utPLSQL surefire reports of every module
+     *
+     * @return the base directory of the module and the report file, for each report
+     */
+    protected List findReports()
+    {
+        List reports = new ArrayList();
+        FilenameFilter filter = new FilenameFilter()
+        {
+            public boolean accept(File dir,String name)
+            {
+                return name.startsWith("utplsql-") && name.endsWith("-report.xml");
+            }
+        };
+
+        for (Iterator i = reactorProjects.iterator(); i.hasNext();)
+        {
+            MavenProject module = (MavenProject) i.next();
+            File[] files = new File(module.getBuild().getDirectory(), "surefire-reports").listFiles(filter);
+
+            for (int index = 0; files != null && index < files.length; index++)
+            {
+                reports.add(new File[] { module.getBasedir(), files[index] });
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Logs the counts of each module with reports
+     */
+    private void logModuleSummary(List reports,List results)
+    {
+        Map modules = new LinkedHashMap();
+
+        for (int index = 0; index < reports.size(); index++)
+        {
+            String module = ((File[]) reports.get(index))[0].getName();
+            TestResults moduleResults = (TestResults) modules.get(module);
+
+            if (moduleResults == null)
+            {
+                moduleResults = new TestResults();
+                modules.put(module, moduleResults);
+            }
+            moduleResults.append((TestResults) results.get(index));
+        }
+
+        StringBuffer summary = new StringBuffer("\n------------------------------------\nMODULES\n------------------------------------");
+
+        for (Iterator i = modules.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            TestResults moduleResults = (TestResults) entry.getValue();
+
+            summary.append("\n" + (moduleResults.getFailures() > 0 ? "FAIL " : "PASS ") + entry.getKey() +
+                           ": Tests run: " + moduleResults.getTestsRun() + ", Failures: " + moduleResults.getFailures() +
+                           ", Flakes: " + moduleResults.getFlakes());
+        }
+        getLog().info(summary.toString());
+    }
+
+    /**
+     * Writes a testsuite element per report, with all its testcases, under one testsuites element
+     */
+    private void writeAggregateReport(List reports,List results,TestResults testResults) throws IOException
+    {
+        aggregateReport.getParentFile().mkdirs();
+
+        FileWriter fw = null;
+        try
+        {
+            fw = new FileWriter(aggregateReport);
+            XmlEscapingWriter xml = new XmlEscapingWriter(fw);
+
+            xml.writeRaw("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
+            xml.writeRaw("\n<testsuites tests=\"" + testResults.getTestsRun() + "\" failures=\"" + testResults.getFailures() +
+                         "\" flakes=\"" + testResults.getFlakes() + "\" time=\"" + testResults.getDuration() + "msec\">");
+
+            for (int index = 0; index < reports.size(); index++)
+            {
+                File module = ((File[]) reports.get(index))[0];
+                TestResults report = (TestResults) results.get(index);
+
+                // each report holds a single testsuite
+                Map.Entry suite = (Map.Entry) report.getDurations().entrySet().iterator().next();
+
+                xml.writeRaw("\n   <testsuite name=\"");
+                xml.write((String) suite.getKey());
+                xml.writeRaw("\" module=\"");
+                xml.write(module.getName());
+                xml.writeRaw("\" tests=\"" + report.getTestsRun() + "\" failures=\"" + report.getFailures() +
+                             "\" flakes=\"" + report.getFlakes() + "\" time=\"" + suite.getValue() + "msec\">");
+
+                xml.writeRaw(report.getTestXML().toString());
+                xml.writeRaw("\n   </testsuite>");
+            }
+            xml.writeRaw("\n</testsuites>");
+
+        } finally
+        {
+            IOUtils.closeQuietly(fw);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.theserverlabs.maven.utplsq;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Mojo which contains a goal that builds the surefire reports from utPLSQL runs already recorded in the
+ * database, for example by a DBMS_SCHEDULER job, without executing any tests. The latest run of each
+ * package in the run_id range or time window is reported.
+ *
+ * @goal harvest
+ */
+public class UtplsqlHarvestMojo extends UtplsqlMojo
+{
+    private static final String RUNS =
+          "select r.run_id, u.program, "
+        + "       round((cast(r.end_on as date) - cast(r.start_on as date)) * 86400000) duration "
+        + "from utr_utp r, ut_utp u "
+        + "where r.utp_id = u.id and r.end_on is not null ";
+
+    /**
+     * The first run_id to report. When fromRunId or toRunId is given the time window is ignored.
+     *
+     * @parameter
+     */
+    private Integer fromRunId;
+
+    /**
+     * The last run_id to report.
+     *
+     * @parameter
+     */
+    private Integer toRunId;
+
+    /**
+     * Report the runs started in this many hours before now. Defaults to 24.
+     *
+     * @parameter default-value="24"
+     */
+    private int harvestHours;
+
+    /**
+     * Build the reports from the recorded outcomes.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        Connection conn = null;
+
+        try
+        {
+            conn = openConnection();
+
+            Map runs = findRuns(conn);
+            SureFireReport report = createRunner(getSurefireDir()).getSureFireReport();
+            TestResults testResults = new TestResults();
+
+            getLog().info("Harvesting " + runs.size() + " utPLSQL runs");
+
+            for (Iterator i = runs.entrySet().iterator(); i.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                long[] run = (long[]) entry.getValue();
+
+                testResults.append(report.build(conn, (int) run[0], (String) entry.getKey(), run[1]));
+            }
+
+            String testName = mergePackageNames((String[]) runs.keySet().toArray(new String[runs.size()]));
+
+            reportAndJudge(testResults, "utplsql:Harvested package " + testName, testName);
+
+        } catch (ClassNotFoundException e)
+        {
+            throw new MojoExecutionException("JDBC Driver class not found", e);
+        } catch (SQLException e)
+        {
+            throw new MojoExecutionException("Problem connecting to DB or executing SQL", e);
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not build report", e);
+        } catch (SplitterException e)
+        {
+            throw new MojoExecutionException("utPLSQL results not in expected format", e);
+        } finally
+        {
+            if (conn != null)
+            {
+                try
+                {
+                    conn.close();
+                } catch (SQLException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the latest run of each package, limited to the configured packages if any
+     *
+     * @param conn
+     * @return run_id and duration in msecs by package name, in run order
+     * @throws SQLException
+     */
+    protected Map findRuns(Connection conn) throws SQLException
+    {
+        boolean byRunId = fromRunId != null || toRunId != null;
+
+        PreparedStatement stmt = conn.prepareStatement(RUNS +
+                        (byRunId ? "and r.run_id between ? and ? " : "and r.start_on >= sysdate - ? / 24 ") +
+                        "order by r.run_id");
+        Map runs = new LinkedHashMap();
+        List testPackages = getTestPackages();
+
+        try
+        {
+            if (byRunId)
+            {
+                stmt.setInt(1, fromRunId == null ? 0 : fromRunId.intValue());
+                stmt.setInt(2, toRunId == null ? Integer.MAX_VALUE : toRunId.intValue());
+            }
+            else
+            {
+                stmt.setInt(1, harvestHours);
+            }
+
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next())
+            {
+                String program = rs.getString(2);
+
+                if (testPackages.isEmpty() || containsIgnoreCase(testPackages, program))
+                {
+                    // a later run of the same package replaces the earlier one
+                    runs.remove(program);
+                    runs.put(program, new long[] { rs.getLong(1), rs.getLong(3) });
+                }
+            }
+        } finally
+        {
+            stmt.close();
+        }
+        return runs;
+    }
+
+    private static boolean containsIgnoreCase(List names,String name)
+    {
+        for (Iterator i = names.iterator(); i.hasNext();)
+        {
+            if (((String) i.next()).equalsIgnoreCase(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,351 @@
+package com.theserverlabs.maven.utplsq;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Mojo which contains a goal that keeps the cost of the report lookup on utr_outcome constant as the run history
+ * grows. Outcomes older than the retention window are archived and/or purged in batches, the index supporting
+ * the lookup by run_id is checked and optionally created, and the lookup time is reported before and after.
+ *
+ * @goal maintain
+ */
+public class UtplsqlMaintainMojo extends UtplsqlMojo
+{
+    private static final String LOOKUP = "select status, description from utr_outcome where run_id = ? order by outcome_id DESC";
+
+    /**
+     * Outcomes of runs started more than this many days ago are purged. Defaults to 30.
+     *
+     * @parameter default-value="30"
+     */
+    private int retentionDays;
+
+    /**
+     * The number of run_ids purged per transaction, greater than 0. Defaults to 100.
+     *
+     * @parameter default-value="100"
+     */
+    private int maintenanceBatchSize;
+
+    /**
+     * Table the outcomes are copied to before they are purged, created like utr_outcome if it doesn't exist.
+     * By default outcomes are not archived.
+     *
+     * @parameter
+     */
+    private String archiveTable;
+
+    /**
+     * Set to false to only archive the outcomes, keeping them in utr_outcome. Default is true.
+     *
+     * @parameter default-value="true"
+     */
+    private boolean purgeOutcomes;
+
+    /**
+     * Set to true to create an index on utr_outcome (run_id, outcome_id) when no index leads with run_id.
+     * By default a missing index is only reported.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean createIndexes;
+
+    /**
+     * Do the maintenance.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        Connection conn = null;
+
+        if (maintenanceBatchSize <= 0)
+        {
+            throw new MojoExecutionException("maintenanceBatchSize must be greater than 0, not " + maintenanceBatchSize);
+        }
+
+        try
+        {
+            conn = openConnection();
+            conn.setAutoCommit(false);
+
+            long before = timeLookup(conn);
+
+            // the archive and purge batches select by run_id, so the index comes first
+            if (!hasRunIdIndex(conn))
+            {
+                if (createIndexes)
+                {
+                    getLog().info("Creating index utr_outcome_run_id_i on utr_outcome (run_id, outcome_id)");
+                    executeDdl(conn, "create index utr_outcome_run_id_i on utr_outcome (run_id, outcome_id)");
+                }
+                else
+                {
+                    getLog().warn("No index on utr_outcome leads with run_id, each report lookup scans the table. " +
+                                  "Set createIndexes to create one");
+                }
+            }
+
+            if (!StringUtils.isEmpty(archiveTable) || purgeOutcomes)
+            {
+                maintainOutcomes(conn);
+            }
+
+            long after = timeLookup(conn);
+
+            getLog().info("utr_outcome lookup of the latest run took " + before + "ms before and " + after + "ms after maintenance");
+
+        } catch (ClassNotFoundException e)
+        {
+            throw new MojoExecutionException("JDBC Driver class not found", e);
+        } catch (SQLException e)
+        {
+            throw new MojoExecutionException("Problem connecting to DB or executing SQL", e);
+        } finally
+        {
+            if (conn != null)
+            {
+                try
+                {
+                    conn.close();
+                } catch (SQLException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Archives and/or purges the outcomes older than the retention window, committing each batch of run_ids.
+     * run_ids come from one sequence so every outcome up to the last run before the window is old.
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    protected void maintainOutcomes(Connection conn) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("select max(run_id) from utr_utp where start_on < sysdate - ?");
+        int cutoff;
+        int first;
+        try
+        {
+            stmt.setInt(1, retentionDays);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            cutoff = rs.getInt(1);
+
+            if (rs.wasNull())
+            {
+                getLog().info("No utPLSQL runs older than " + retentionDays + " days");
+                return;
+            }
+        } finally
+        {
+            stmt.close();
+        }
+
+        Statement min = conn.createStatement();
+        try
+        {
+            ResultSet rs = min.executeQuery("select min(run_id) from utr_outcome");
+            rs.next();
+            first = rs.getInt(1);
+
+            if (rs.wasNull() || first > cutoff)
+            {
+                getLog().info("No utPLSQL outcomes older than " + retentionDays + " days");
+                return;
+            }
+        } finally
+        {
+            min.close();
+        }
+
+        if (!StringUtils.isEmpty(archiveTable) && !tableExists(conn, archiveTable))
+        {
+            getLog().info("Creating archive table " + archiveTable);
+            executeDdl(conn, "create table " + archiveTable + " as select * from utr_outcome where 1 = 0");
+        }
+        else if (!StringUtils.isEmpty(archiveTable) && !purgeOutcomes)
+        {
+            // outcomes are kept, so only archive the runs not archived before
+            first = Math.max(first, count(conn, "select nvl(max(run_id), 0) + 1 from " + archiveTable, null));
+        }
+
+        PreparedStatement archive = StringUtils.isEmpty(archiveTable) ? null :
+                        conn.prepareStatement("insert into " + archiveTable + " select * from utr_outcome where run_id between ? and ?");
+        PreparedStatement purge = purgeOutcomes ?
+                        conn.prepareStatement("delete from utr_outcome where run_id between ? and ?") : null;
+        int archived = 0, purged = 0;
+        try
+        {
+            for (int from = first; from <= cutoff; from += maintenanceBatchSize)
+            {
+                int to = Math.min(from + maintenanceBatchSize - 1, cutoff);
+
+                if (archive != null)
+                {
+                    archive.setInt(1, from);
+                    archive.setInt(2, to);
+                    archived += archive.executeUpdate();
+                }
+                if (purge != null)
+                {
+                    purge.setInt(1, from);
+                    purge.setInt(2, to);
+                    purged += purge.executeUpdate();
+                }
+                conn.commit();
+
+                getLog().debug("Maintained utr_outcome run_ids " + from + " to " + to);
+            }
+        } finally
+        {
+            if (archive != null)
+            {
+                archive.close();
+            }
+            if (purge != null)
+            {
+                purge.close();
+            }
+        }
+
+        getLog().info("Archived " + archived + " and purged " + purged + " utPLSQL outcomes up to run_id " + cutoff);
+
+        if (purged > 0)
+        {
+            // the optimizer should see the smaller table
+            CallableStatement stats = conn.prepareCall("begin dbms_stats.gather_table_stats(user, 'UTR_OUTCOME', cascade => TRUE); end;");
+            try
+            {
+                stats.execute();
+            } finally
+            {
+                stats.close();
+            }
+        }
+    }
+
+    /**
+     * Times the lookup SureFireReport does for the latest run. The lookup runs once untimed first so
+     * that the times before and after maintenance are both taken with a warm cache.
+     *
+     * @param conn
+     * @return the msecs taken to fetch every outcome of the run
+     * @throws SQLException
+     */
+    protected long timeLookup(Connection conn) throws SQLException
+    {
+        Statement latest = conn.createStatement();
+        PreparedStatement stmt = conn.prepareStatement(LOOKUP);
+        try
+        {
+            ResultSet rs = latest.executeQuery("select max(run_id) from utr_outcome");
+            rs.next();
+            int runId = rs.getInt(1);
+
+            stmt.setInt(1, runId);
+            fetchAll(stmt);
+
+            long start = System.currentTimeMillis();
+
+            fetchAll(stmt);
+
+            return System.currentTimeMillis() - start;
+        } finally
+        {
+            stmt.close();
+            latest.close();
+        }
+    }
+
+    private void fetchAll(PreparedStatement stmt) throws SQLException
+    {
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next())
+        {
+            rs.getString(2);
+        }
+        rs.close();
+    }
+
+    private boolean hasRunIdIndex(Connection conn) throws SQLException
+    {
+        return count(conn, "select count(*) from user_ind_columns where table_name = 'UTR_OUTCOME' " +
+                           "and column_name = 'RUN_ID' and column_position = 1", null) > 0;
+    }
+
+    private boolean tableExists(Connection conn,String table) throws SQLException
+    {
+        // a qualified table is looked up in its owner's schema
+        int dot = table.indexOf('.');
+        PreparedStatement stmt = conn.prepareStatement("select count(*) from " + (dot < 0 ? "user_tables" : "all_tables") +
+                                                       " where table_name = upper(?)" + (dot < 0 ? "" : " and owner = upper(?)"));
+        try
+        {
+            stmt.setString(1, table.substring(dot + 1));
+
+            if (dot >= 0)
+            {
+                stmt.setString(2, table.substring(0, dot));
+            }
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return rs.getInt(1) > 0;
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    private int count(Connection conn,String sql,String param) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try
+        {
+            if (param != null)
+            {
+                stmt.setString(1, param);
+            }
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    private void executeDdl(Connection conn,String ddl) throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        try
+        {
+            stmt.execute(ddl);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+}
@@ -19,10 +19,32 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -38,55 +60,142 @@ import org.apache.maven.plugin.MojoFailureException;
  */
 public class UtplsqlMojo extends AbstractMojo
 {
+    private static final String[] DEFAULT_SOURCE_EXTENSIONS = { "sql", "pks", "pkb", "pkg", "pck", "prc", "fnc", "tps", "tpb", "trg", "vw" };
+    
+    /**
+     * The name the session on url is logged and traced under, the url may hold credentials
+     */
+    protected static final String DEFAULT_SESSION = "default";
+    
     /**
      * The JDBC driver to use. Defaults to Oracle.
      * 
      * @parameter default-value="oracle.jdbc.driver.OracleDriver"
      */
-    private String driver;
+    protected String driver;
 
     /**
      * The JDBC URL to use.
      * 
      * @parameter
      */
-    private String url;
+    protected String url;
 
     /**
      * The username to connect to the database.
      * 
      * @parameter
      */
-    private String username;
+    protected String username;
 
     /**
      * The password to connect to the database.
      * 
      * @parameter
      */
-    private String password;
+    protected String password;
 
     /**
      * The type of test method to execute. Can be either test or run. Defaults to test.
      * 
      * @parameter default-value="test"
      */
-    private String testMethod;
+    protected String testMethod;
 
     /**
      * The name of the package to test. 
      * @deprecated Please use <packages><param>mypkg1</param><param>mypkg2</param></packages>
      * @parameter
      */
-    private String packageName;
+    protected String packageName;
     
     /**
      * The name of all the packages to test. 
      * 
      * @parameter
      */
-    private String[] packages;
+    protected String[] packages;
 
+    /**
+     * Set to true to resume an interrupted run: the reports of the earlier run are kept and the packages recorded
+     * as completed in checkpointFile, whose report still holds the recorded counts, are not run again. Default 
+     * is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean resume;
+    
+    /**
+     * File the run_id, counts and report of each package are recorded in as it completes.
+     * 
+     * @parameter default-value="${project.build.directory}/utplsql-checkpoint.properties"
+     */
+    private File checkpointFile;
+    
+    /**
+     * The number of times a connection lost while running a package is re-opened to run the package again 
+     * before the run is aborted. Failed attempts to re-open it count too. Connections lost while opening a 
+     * session or during the pre-flight check are re-opened in the same way. Defaults to 3.
+     * 
+     * @parameter default-value="3"
+     */
+    private int maxReconnects;
+    
+    /**
+     * The checkpoint of the running build
+     */
+    protected RunCheckpoint checkpoint;
+    
+    /**
+     * Set to true to run the member packages of testSuiteName as individual packages, in the same way as the 
+     * packages list, instead of one utplsql.testsuite call. The members then run with workers, targets or the 
+     * scheduler and each gets its own report. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean expandSuites;
+    
+    /**
+     * True once the suite has been expanded into packages
+     */
+    private boolean suiteExpanded;
+    
+    /**
+     * The owner, prefix and samepackage flag recorded for each member of the expanded suite, by package name
+     */
+    private Map suiteMemberOptions;
+    
+    /**
+     * LIKE patterns of the test packages of the connection schema to run, such as UT_%, added to packages. They are
+     * resolved with one data dictionary query at startup and the test package prefix is stripped unless the test 
+     * method is run. Packages matched without the prefix can't be given to utplsql.test, they are skipped with a warning.
+     * 
+     * @parameter
+     */
+    private String[] includes;
+    
+    /**
+     * LIKE patterns of the test packages left out of those found with includes.
+     * 
+     * @parameter
+     */
+    private String[] excludes;
+    
+    /**
+     * File the packages found with includes are cached in, one per line.
+     * 
+     * @parameter default-value="${project.build.directory}/utplsql-packages.txt"
+     */
+    private File discoveryCacheFile;
+    
+    /**
+     * Set to true to take the packages from discoveryCacheFile, when it exists, instead of querying the database,
+     * to re-run the packages of an earlier discovery. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean useDiscoveryCache;
+    
     /**
      * The name of the suite to test.
      * 
@@ -99,14 +208,14 @@ public class UtplsqlMojo extends AbstractMojo
      * 
      * @parameter default-value="FALSE"
      */
-    private String setupMethod;
+    protected String setupMethod;
 
     /**
      * Location to which we will write the report file. Defaults to the Maven /target directory of the project.
      * 
      * @parameter expression="${project.build.directory}"
      */
-    private File outputDirectory;
+    protected File outputDirectory;
 
     /**
      * If there is a connection problem or DB PLSQL installation error the plugin reports 0 tests run. This is an error condition which should be
@@ -117,103 +226,1798 @@ public class UtplsqlMojo extends AbstractMojo
     private Boolean failOnNoTests;
 
     /**
-     * If errors occur the failure message can be written to the console, this was active by
-     * default in version before 1.31, its now switched off by default. 
-     * NB/ This information is always included in the surefire xml report.
+     * If errors occur the failure message can be written to the console, this was active by
+     * default in version before 1.31, its now switched off by default. 
+     * NB/ This information is always included in the surefire xml report.
+     * 
+     * @parameter expression=false
+     */
+    private Boolean writeFailuresToConsole;
+    
+    /**
+     * The number of times a package with failing tests is re-run within the same execution. A package
+     * which passes on a re-run is reported as flaky in the surefire xml. Default is 0, no re-runs.
+     * 
+     * @parameter default-value="0"
+     */
+    private int rerunFailingTestsCount;
+    
+    /**
+     * Optional file in which the runs and flaky runs of each package are counted across builds. 
+     * 
+     * @parameter
+     */
+    private File flakyHistoryFile;
+    
+    /**
+     * Set to true to only test the packages whose source files changed. A source file has changed if it was
+     * modified after the last successful run or is listed in changedSources. The changed package names are 
+     * taken from the CREATE OR REPLACE headers of the files. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean selectChangedSources;
+    
+    /**
+     * The directory holding the PL/SQL sources of the project.
+     * 
+     * @parameter default-value="${basedir}/src/main/plsql"
+     */
+    private File sourceDirectory;
+    
+    /**
+     * The extensions of the PL/SQL source files. Defaults to sql, pks, pkb, pkg, pck, prc, fnc, tps, tpb, trg and vw.
+     * 
+     * @parameter
+     */
+    private String[] sourceExtensions;
+    
+    /**
+     * The changed source files, for example from the version control system. When given, file timestamps are not checked.
+     * 
+     * @parameter
+     */
+    private File[] changedSources;
+    
+    /**
+     * File whose timestamp marks the last successful run, used to find the changed sources. It is kept outside 
+     * the build directory so that mvn clean doesn't select every package again; a file in the build directory 
+     * makes every build after a clean test all packages. Add the file to the .gitignore of the project.
+     * 
+     * @parameter default-value="${basedir}/.utplsql-last-run"
+     */
+    private File lastRunFile;
+    
+    /**
+     * Databases to run the tests against concurrently instead of url. The surefire reports of each target are
+     * prefixed with the target name. The username and password default to those of the plugin.
+     * <pre>
+     * &lt;targets&gt;
+     *   &lt;connectionTarget&gt;
+     *     &lt;name&gt;ora11&lt;/name&gt;
+     *     &lt;url&gt;jdbc:oracle:thin:@host11:1521:ORCL&lt;/url&gt;
+     *   &lt;/connectionTarget&gt;
+     * &lt;/targets&gt;
+     * </pre>
+     * 
+     * @parameter
+     */
+    private ConnectionTarget[] targets;
+    
+    /**
+     * The number of worker schemas to run the packages in parallel. Each worker schema is provisioned from the 
+     * template schema and reached through proxy authentication, so packages sharing fixture tables do not 
+     * conflict. Default is 0, the packages run one after the other in the connection schema.
+     * 
+     * @parameter default-value="0"
+     */
+    private int workers;
+    
+    /**
+     * The prefix of the worker schema names, which are numbered from 1. Defaults to UTW_.
+     * 
+     * @parameter default-value="UTW_"
+     */
+    private String workerSchemaPrefix;
+    
+    /**
+     * The schema copied to each worker. Defaults to the connection user.
+     * 
+     * @parameter
+     */
+    private String workerTemplateSchema;
+    
+    /**
+     * PL/SQL block creating a worker schema, binding the worker and template schema names, for example to 
+     * import a Data Pump export. Defaults to creating a proxy user and replaying the DDL of the template 
+     * schema with DBMS_METADATA.
+     * 
+     * @parameter
+     */
+    private String workerProvisionStatement;
+    
+    /**
+     * PL/SQL block dropping a worker schema, binding the worker schema name. Defaults to drop user cascade.
+     * 
+     * @parameter
+     */
+    private String workerTeardownStatement;
+    
+    /**
+     * Set to true to keep the worker schemas after the run and reuse them on the next. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean recycleWorkers;
+    
+    /**
+     * Table every testcase outcome is written to for trend analysis, created if it doesn't exist. May be qualified 
+     * by its owner. Each row records the target the package ran against. The outcomes of each package are inserted 
+     * in batches and committed together on a separate connection, in the background, so a failing history only logs 
+     * a warning. By default no history is written.
+     * 
+     * @parameter
+     */
+    private String historyTable;
+    
+    /**
+     * The number of outcomes inserted per round trip into the history table. Defaults to 500.
+     * 
+     * @parameter default-value="500"
+     */
+    private int historyBatchSize;
+    
+    /**
+     * The history table writer of the running build, null if no history is written
+     */
+    protected HistorySink historySink;
+    
+    /**
+     * Isolates the fixture changes of each package run so that utPLSQL sets up and tears down the fixtures once per 
+     * package, whatever the setupMethod. With savepoint each package runs in a transaction rolled back to a savepoint 
+     * once its report is built, outcomes utPLSQL records in the same transaction are rolled back with it. With 
+     * flashback the fixtureTables are flashed back to a restore point, for packages which commit. With setupMethod 
+     * TRUE the number of setup and teardown calls saved is reported. Default is no isolation.
+     * 
+     * @parameter
+     */
+    private String fixtureMode;
+    
+    /**
+     * The tables flashed back after each package run with the flashback fixture mode. Row movement must be enabled
+     * on them.
+     * 
+     * @parameter
+     */
+    private String[] fixtureTables;
+    
+    /**
+     * Set to true to adapt the number of workers running packages at once to the database latency, measured with
+     * a round trip before each package. The limit starts at minConcurrency, grows by one while the latency stays 
+     * within latencyTolerance times the lowest seen and halves when it doesn't or a package run fails. The number
+     * of workers is the upper bound. Default is false, all workers run at once.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean adaptiveConcurrency;
+    
+    /**
+     * The lowest and starting number of workers running at once with adaptiveConcurrency. Defaults to 1.
+     * 
+     * @parameter default-value="1"
+     */
+    private int minConcurrency;
+    
+    /**
+     * The latency, as a multiple of the lowest seen, above which the database is considered overloaded with 
+     * adaptiveConcurrency. Defaults to 2.
+     * 
+     * @parameter default-value="2.0"
+     */
+    private double latencyTolerance;
+    
+    /**
+     * Profiles the PL/SQL of each package run and writes a hot-spot report next to its surefire report. 
+     * Set to hprof for DBMS_HPROF or profiler for DBMS_PROFILER, any other value fails the build. Default is no 
+     * profiling.
+     * 
+     * @parameter
+     */
+    private String profiler;
+    
+    /**
+     * The Oracle directory object DBMS_HPROF writes its trace files to. Defaults to PLSHPROF_DIR.
+     * 
+     * @parameter default-value="PLSHPROF_DIR"
+     */
+    private String profilerDirectory;
+    
+    /**
+     * The number of subprograms listed in a hot-spot report. Defaults to 20.
+     * 
+     * @parameter default-value="20"
+     */
+    private int hotSpotCount;
+    
+    /**
+     * Set to true to snapshot the session statistics from V$MYSTAT before and after each package run. The deltas are
+     * added to the surefire xml as properties and written to resourceSummaryFile. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean collectSessionStatistics;
+    
+    /**
+     * The V$STATNAME names of the statistics to collect. Defaults to CPU used by this session, consistent gets, 
+     * db block gets, physical reads, redo size, parse count (total) and parse count (hard).
+     * 
+     * @parameter
+     */
+    private String[] sessionStatistics;
+    
+    /**
+     * The file the statistics of each package are summarised in.
+     * 
+     * @parameter default-value="${project.build.directory}/utplsql-resource-summary.csv"
+     */
+    private File resourceSummaryFile;
+    
+    /**
+     * The maximum value of a statistic for a package run, the build fails when a package goes over its budget. 
+     * The name is either the statistic name for every package or package:statistic for a single package.
+     * <pre>
+     * &lt;resourceBudgets&gt;
+     *   &lt;property&gt;
+     *     &lt;name&gt;mybooks_pkg:consistent gets&lt;/name&gt;
+     *     &lt;value&gt;100000&lt;/value&gt;
+     *   &lt;/property&gt;
+     * &lt;/resourceBudgets&gt;
+     * </pre>
+     * 
+     * @parameter
+     */
+    private Properties resourceBudgets;
+    
+    /**
+     * The resource budgets parsed at startup, by lower case name
+     */
+    private Map budgets;
+    
+    /**
+     * The durations of the latest accepted runs of each package, which each run is compared with. The comparison 
+     * is skipped while the file doesn't exist, the accept-baseline goal creates and updates it.
+     * 
+     * @parameter default-value="${basedir}/utplsql-baseline.properties"
+     */
+    protected File baselineFile;
+    
+    /**
+     * The file the durations of each run are written to, for the accept-baseline goal.
+     * 
+     * @parameter default-value="${project.build.directory}/utplsql-durations.properties"
+     */
+    protected File runDurationsFile;
+    
+    /**
+     * The number of accepted runs kept in the baseline, a run is compared with their median. Defaults to 5.
+     * 
+     * @parameter default-value="5"
+     */
+    protected int baselineRuns;
+    
+    /**
+     * The slowdown in percent of the baseline a package is allowed before it is reported. Defaults to 50.
+     * 
+     * @parameter default-value="50"
+     */
+    private int baselineTolerance;
+    
+    /**
+     * Slowdowns of at most this many msecs are taken as noise and not reported. Defaults to 500.
+     * 
+     * @parameter default-value="500"
+     */
+    private long baselineMinimumDelta;
+    
+    /**
+     * Set to true to fail the build on a slowdown, by default slowdowns are only warned about.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean failOnSlowdown;
+    
+    /**
+     * The number of worst slowdowns listed. Defaults to 10.
+     * 
+     * @parameter default-value="10"
+     */
+    private int slowdownReportCount;
+    
+    /**
+     * Set to true to capture the DBMS_OUTPUT of each package run as system-out of its surefire report. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean captureDbmsOutput;
+    
+    /**
+     * The number of DBMS_OUTPUT lines fetched per round trip. Defaults to 1000.
+     * 
+     * @parameter default-value="1000"
+     */
+    private int dbmsOutputChunkSize;
+    
+    /**
+     * The maximum number of characters of DBMS_OUTPUT in a surefire report. Longer output is written in full to
+     * utplsql-&lt;package&gt;-output.txt next to the report. Defaults to 1048576.
+     * 
+     * @parameter default-value="1048576"
+     */
+    private int systemOutMaxSize;
+    
+    /**
+     * How the packages are run. With session, the default, each package runs in a client session. With scheduler
+     * each package runs as a DBMS_SCHEDULER job, up to schedulerParallelism at once, while the plugin only holds 
+     * one session to submit the jobs and poll their completion.
+     * 
+     * @parameter default-value="session"
+     */
+    private String executionMode;
+    
+    /**
+     * The maximum number of scheduler jobs running at once. Defaults to 4.
+     * 
+     * @parameter default-value="4"
+     */
+    private int schedulerParallelism;
+    
+    /**
+     * The time in msecs between two checks for completed scheduler jobs. Defaults to 1000.
+     * 
+     * @parameter default-value="1000"
+     */
+    private long schedulerPollInterval;
+    
+    /**
+     * Statements run on each connection before any package is timed, for example ALTER SESSION settings.
+     * 
+     * @parameter
+     */
+    private String[] sessionInitStatements;
+    
+    /**
+     * SQL or PL/SQL blocks run on each connection after the session statements to warm up the library cache
+     * before any package is timed.
+     * 
+     * @parameter
+     */
+    private String[] warmupStatements;
+    
+    /**
+     * Packages, as owner.name, pinned in the shared pool with DBMS_SHARED_POOL.KEEP before any package is timed.
+     * 
+     * @parameter
+     */
+    private String[] keepPackages;
+    
+    /**
+     * Set to true to record the connects, package executions, outcome fetches and report writes of the run with 
+     * the thread they ran on, written to traceFile in the Chrome trace event format. Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean trace;
+    
+    /**
+     * The trace of the run, opened in chrome://tracing or Perfetto.
+     * 
+     * @parameter default-value="${project.build.directory}/utplsql-trace.json"
+     */
+    private File traceFile;
+    
+    /**
+     * The trace recorder of the running build, null if not tracing
+     */
+    protected TraceRecorder traceRecorder;
+    
+    /**
+     * Set to true to check, before any test runs, that utPLSQL is reachable and that every test package exists 
+     * and is valid, and that the program it tests is valid. A missing program under test is only reported. 
+     * Default is false.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean preflight;
+    
+    /**
+     * The prefix of the utPLSQL test packages, used by the pre-flight check, discovery, fixture isolation and to 
+     * find the packages affected by changes. Defaults to ut_.
+     * 
+     * @parameter default-value="ut_"
+     */
+    protected String testPackagePrefix;
+    
+    /**
+     * File each event of the run is appended to as one line of JSON as it happens: run start, package start, 
+     * each testcase outcome, package end and run end.
+     * 
+     * @parameter default-value="${project.build.directory}/utplsql-events.ndjson"
+     */
+    private File eventLogFile;
+    
+    /**
+     * Set to false to turn the event log off. Default is true.
+     * 
+     * @parameter default-value="true"
+     */
+    private boolean logEvents;
+    
+    /**
+     * The event log of the running build, null if off
+     */
+    protected EventLog eventLog;
+    
+    /**
+     * Total time spent in session initialisation, reported apart from the package durations
+     */
+    private long sessionInitTime;
+    
+    /**
+     * Do the main work of the plugin here.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        long runStart = System.currentTimeMillis();
+        TestResults runResults = null;
+        String runStatus = null;
+        FlakyHistory flakyHistory = null;
+        
+        validateConfiguration();
+        
+        try
+        {
+            String[] packages = selectPackages();
+            
+            if (selectChangedSources && packages != null && packages.length == 0)
+            {
+                getLog().info("No changed sources, no utPLSQL tests to run");
+                return;
+            }
+            
+            // a resumed run keeps the reports of the completed packages
+            File surefireDir = getSurefireDir(!resume);
+            
+            openRunSinks(packages);
+            
+            flakyHistory = flakyHistoryFile == null ? null : new FlakyHistory(flakyHistoryFile);
+            
+            Map targetResults = new LinkedHashMap();
+            TestResults testResults = runConfigured(surefireDir, packages, flakyHistory, targetResults);
+            
+            if (collectSessionStatistics)
+            {
+                writeResourceSummary(testResults);
+            }
+            
+            // a failing run can't be accepted as baseline
+            if (testResults.getFailures() == 0)
+            {
+                PerformanceBaseline.saveRun(testResults.getDurations(), runDurationsFile);
+            }
+            else
+            {
+                runDurationsFile.delete();
+            }
+                              
+            runResults = testResults;
+            
+            String testName = getTestName(packages);
+            
+            reportAndJudge(testResults, getTestTitle(testName), testName, targetResults.isEmpty() ? null : targetResults);
+            
+            checkResourceBudgets(testResults);
+            
+            runStatus = "SUCCESS";
+            
+            if (selectChangedSources)
+            {
+                FileUtils.touch(lastRunFile);
+                lastRunFile.setLastModified(runStart);
+            }
+
+        } catch (ClassNotFoundException e)
+        {
+            throw new MojoExecutionException("JDBC Driver class not found", e);
+        } catch (SQLException e)
+        {
+            throw new MojoExecutionException("Problem connecting to DB or executing SQL", e);
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not build report", e);
+        } catch (SplitterException e)
+        {
+            throw new MojoExecutionException("utPLSQL results not in expected format", e);
+        } catch (MojoFailureException e)
+        {
+            runStatus = "FAILURE";
+            throw e;
+        } finally
+        {
+            if (flakyHistory != null)
+            {
+                // the runs recorded before a package fails with no tests count too
+                try
+                {
+                    flakyHistory.save();
+                } catch (IOException e)
+                {
+                    getLog().warn("Could not save the flaky history " + flakyHistoryFile + ": " + e.getMessage());
+                }
+            }
+            closeRunSinks(runResults, System.currentTimeMillis() - runStart, runStatus);
+        }
+    }
+
+    /**
+     * Rejects configuration values no run can start with
+     * 
+     * @throws MojoExecutionException
+     */
+    protected void validateConfiguration() throws MojoExecutionException
+    {
+        if (!StringUtils.isEmpty(fixtureMode) && !FixtureIsolation.SAVEPOINT.equals(fixtureMode) && !FixtureIsolation.FLASHBACK.equals(fixtureMode))
+        {
+            throw new MojoExecutionException("fixtureMode must be savepoint or flashback, not " + fixtureMode);
+        }
+        
+        if (!StringUtils.isEmpty(profiler) && !PlsqlProfiler.isValidType(profiler))
+        {
+            throw new MojoExecutionException("profiler must be hprof or profiler, not " + profiler);
+        }
+        
+        checkTargetNames();
+        
+        budgets = parseResourceBudgets();
+    }
+
+    /**
+     * Works out the packages to test from the configured packages, the expanded suite, the discovered 
+     * packages and the changed sources
+     * 
+     * @return the packages to test, null or unused when a suite or package name is run
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     * @throws IOException
+     */
+    protected String[] selectPackages() throws ClassNotFoundException, SQLException, IOException
+    {
+        String[] packages = this.packages;
+        
+        if (expandSuites && !StringUtils.isEmpty(testSuiteName))
+        {
+            packages = expandSuite();
+        }
+        
+        if (includes != null && includes.length > 0 && !isSuiteRun() && StringUtils.isEmpty(packageName))
+        {
+            packages = discoverPackages(packages);
+        }
+        
+        if (selectChangedSources && !isSuiteRun() && StringUtils.isEmpty(packageName))
+        {
+            packages = selectChangedPackages(packages);
+        }
+        return packages;
+    }
+
+    /**
+     * Opens what the run records to besides the reports: the checkpoint, the trace, the history table and 
+     * the event log. They are closed by closeRunSinks
+     * 
+     * @param packages the packages to test
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    protected void openRunSinks(String[] packages) throws ClassNotFoundException, IOException
+    {
+        checkpoint = new RunCheckpoint(checkpointFile);
+        
+        if (!resume)
+        {
+            checkpoint.clear();
+        }
+        
+        if (trace)
+        {
+            traceRecorder = new TraceRecorder();
+        }
+        
+        if (!StringUtils.isEmpty(historyTable))
+        {
+            openHistory();
+        }
+        
+        if (logEvents && eventLogFile != null)
+        {
+            openEventLog();
+        }
+        
+        if (eventLog != null)
+        {
+            eventLog.runStart(isSuiteRun() || packages == null ? StringUtils.defaultString(testSuiteName, packageName) : mergePackageNames(packages), 
+                              packages == null ? 1 : packages.length);
+        }
+    }
+
+    /**
+     * Closes whatever openRunSinks opened, none of them fails the build
+     * 
+     * @param runResults the results of the run, null if it didn't complete
+     * @param duration the duration of the run in msecs
+     * @param runStatus SUCCESS or FAILURE, null if the run ended in an error
+     */
+    protected void closeRunSinks(TestResults runResults,long duration,String runStatus)
+    {
+        if (eventLog != null)
+        {
+            // the verdict includes the no tests, baseline and budget checks, an error leaves the run aborted
+            if (runStatus != null)
+            {
+                eventLog.runEnd(runResults, duration, runStatus);
+            }
+            eventLog.close();
+            eventLog = null;
+        }
+        if (historySink != null)
+        {
+            historySink.close();
+            historySink = null;
+        }
+        if (traceRecorder != null)
+        {
+            traceRecorder.span("run", "run", 0);
+            try
+            {
+                traceRecorder.write(traceFile);
+                getLog().info("Trace of the run written to " + traceFile);
+            } catch (IOException e)
+            {
+                getLog().warn("Could not write trace " + traceFile + ": " + e.getMessage());
+            }
+            traceRecorder = null;
+        }
+        checkpoint = null;
+    }
+
+    /**
+     * Runs the tests in the configured way: against the targets, with workers or on one connection
+     * 
+     * @param surefireDir
+     * @param packages the packages to test
+     * @param flakyHistory where runs are recorded, may be null
+     * @param targetResults filled with the results of each target by target name when targets are configured
+     * @return the merged results
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
+     * @throws MojoFailureException
+     */
+    protected TestResults runConfigured(File surefireDir,String[] packages,FlakyHistory flakyHistory,Map targetResults) throws ClassNotFoundException, SQLException, IOException, SplitterException, MojoFailureException
+    {
+        if (targets != null && targets.length > 0)
+        {
+            targetResults.putAll(runTargets(surefireDir, packages, flakyHistory));
+            
+            TestResults testResults = new TestResults();
+            
+            for (Iterator i = targetResults.values().iterator(); i.hasNext();)
+            {
+                testResults.append((TestResults) i.next());
+            }
+            return testResults;
+        }
+        
+        if (workers > 0 && !isSuiteRun() && StringUtils.isEmpty(packageName))
+        {
+            return runWorkers(surefireDir, packages, flakyHistory);
+        }
+        
+        Callable connector = new Callable()
+        {
+            public Object call() throws Exception
+            {
+                Connection conn = openConnection();
+                initSession(conn, DEFAULT_SESSION);
+                return conn;
+            }
+        };
+        Connection conn = connect(connector, DEFAULT_SESSION);
+        try
+        {
+            return runTests(conn, connector, createRunner(surefireDir), packages, flakyHistory);
+        } finally
+        {
+            try
+            {
+                conn.close();
+            } catch (SQLException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * @param packages the packages tested
+     * @return the suite, package or merged package names tested
+     */
+    protected String getTestName(String[] packages)
+    {
+        if (!StringUtils.isEmpty(testSuiteName))
+        {
+            return testSuiteName;
+        }
+        else if (!StringUtils.isEmpty(packageName))
+        {
+            return packageName;
+        }
+        return mergePackageNames(packages);
+    }
+
+    /**
+     * @param testName from getTestName
+     * @return the title of the summary
+     */
+    protected String getTestTitle(String testName)
+    {
+        return (StringUtils.isEmpty(testSuiteName) ? "utplsql:Testing package " : "utplsql:Testing suite  ") + testName;
+    }
+
+    /**
+     * Opens the event log, a log which can't be opened is reported and left off
+     */
+    protected void openEventLog()
+    {
+        try
+        {
+            eventLog = new EventLog(eventLogFile, getLog());
+        } catch (IOException e)
+        {
+            getLog().warn("Could not open the utPLSQL event log " + eventLogFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the configured suite, package or packages on a connection
+     * 
+     * @param conn
+     * @param connector opens and initialises a new connection when conn is lost
+     * @param runner
+     * @param packages the packages to test when no suite or package name is configured
+     * @param flakyHistory where runs are recorded, may be null
+     * @return the merged results
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
+     * @throws MojoFailureException if a package runs no tests
+     */
+    protected TestResults runTests(Connection conn,Callable connector,UtplsqlRunner runner,String[] packages,FlakyHistory flakyHistory) throws SQLException, IOException, SplitterException, MojoFailureException
+    {
+        TestResults testResults = new TestResults();
+        // holds the connection, replaced on reconnect
+        Connection[] session = { conn };
+        
+        try
+        {
+            checkPreflight(session, connector, packages);
+            
+            // Run testSuite
+            if (isSuiteRun())
+            {
+                testResults = runner.runTestSuite(session[0],testSuiteName, testMethod, setupMethod);
+            }
+            // Run packageName
+            else if (!StringUtils.isEmpty(packageName))
+            {
+                testResults = runPackage(runner, session, connector, packageName, flakyHistory);
+            }
+            // Run packages as scheduler jobs
+            else if ("scheduler".equals(executionMode))
+            {
+                Map pkgResults = runner.runPackagesAsJobs(session[0], packages, testMethod, setupMethod, schedulerParallelism, schedulerPollInterval);
+            
+                for (Iterator i = pkgResults.entrySet().iterator(); i.hasNext();)
+                {
+                    Map.Entry entry = (Map.Entry) i.next();
+                
+                    checkForNoTests((String) entry.getKey(), (TestResults) entry.getValue());
+                
+                    testResults.append((TestResults) entry.getValue());
+                }
+            }
+            // Run packages
+            else 
+            {
+                TestResults pkgTestResults;
+            
+                for (int index = 0; index < packages.length;index++)
+                {  
+                    pkgTestResults = runPackage(runner, session, connector, packages[index], flakyHistory);
+                
+                    // We need to check for 0 tests run on each package otherwise we may miss an error
+                    checkForNoTests(packages[index],pkgTestResults);
+                                    
+                    testResults.append(pkgTestResults);
+                
+                }
+            }
+        } finally
+        {
+            if (session[0] != conn)
+            {
+                session[0].close();
+            }
+        }
+        return testResults;
+    }
+
+    /**
+     * Runs the tests against every connection target concurrently, each target on its own connection
+     * 
+     * @param surefireDir
+     * @param packages the packages to test
+     * @param flakyHistory where runs are recorded, may be null
+     * @return the results of each target by target name, in configured order
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
+     * @throws MojoFailureException
+     */
+    protected Map runTargets(final File surefireDir,final String[] packages,final FlakyHistory flakyHistory) throws ClassNotFoundException, SQLException, IOException, SplitterException, MojoFailureException
+    {
+        Class.forName(driver);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(targets.length);
+        List futures = new ArrayList();
+        
+        try
+        {
+            for (int index = 0; index < targets.length; index++)
+            {
+                final ConnectionTarget target = targets[index];
+                
+                futures.add(executor.submit(new Callable()
+                {
+                    public Object call() throws Exception
+                    {
+                        getLog().info("Running utPLSQL tests against target " + target.getName());
+                        
+                        Callable connector = new Callable()
+                        {
+                            public Object call() throws Exception
+                            {
+                                long connectStart = traceRecorder == null ? 0 : traceRecorder.now();
+                                Connection conn = DriverManager.getConnection(target.getUrl(), 
+                                                                              StringUtils.defaultString(target.getUsername(), username),
+                                                                              StringUtils.defaultString(target.getPassword(), password));
+                                traceSpan("connect " + target.getName(), "connect", connectStart);
+                                
+                                initSession(conn, target.getName());
+                                return conn;
+                            }
+                        };
+                        Connection conn = connect(connector, target.getName());
+                        try
+                        {
+                            UtplsqlRunner runner = createRunner(surefireDir);
+                            runner.setTargetName(target.getName());
+                            
+                            return runTests(conn, connector, runner, packages, flakyHistory);
+                        } finally
+                        {
+                            conn.close();
+                        }
+                    }
+                }));
+            }
+            
+            String[] names = new String[targets.length];
+            
+            for (int index = 0; index < targets.length; index++)
+            {
+                names[index] = targets[index].getName();
+            }
+            
+            List results = waitForAll(futures, "Target", names);
+            Map targetResults = new LinkedHashMap();
+            
+            for (int index = 0; index < targets.length; index++)
+            {
+                targetResults.put(names[index], results.get(index));
+            }
+            
+            return targetResults;
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks that every target has a name of its own, the name keeps the reports and results of the targets apart
+     * 
+     * @throws MojoExecutionException if a name is missing or used twice
+     */
+    protected void checkTargetNames() throws MojoExecutionException
+    {
+        if (targets == null)
+        {
+            return;
+        }
+        
+        Set names = new HashSet();
+        
+        for (int index = 0; index < targets.length; index++)
+        {
+            String name = targets[index].getName();
+            
+            if (StringUtils.isBlank(name))
+            {
+                throw new MojoExecutionException("Target " + (index + 1) + " (" + targets[index].getUrl() + ") has no name");
+            }
+            if (!names.add(name.toLowerCase()))
+            {
+                throw new MojoExecutionException("Target name " + name + " is used more than once");
+            }
+        }
+    }
+
+    /**
+     * Waits for every task before failing, so each gets its reports written
+     * 
+     * @param futures the submitted tasks
+     * @param kind what a task runs against, for the log
+     * @param names the name of each task, for the log
+     * @return the result of each task in submitted order
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
+     * @throws MojoFailureException
+     */
+    protected List waitForAll(List futures,String kind,String[] names) throws SQLException, IOException, SplitterException, MojoFailureException
+    {
+        List results = new ArrayList();
+        Throwable firstError = null;
+        
+        for (int index = 0; index < futures.size(); index++)
+        {
+            try
+            {
+                results.add(((Future) futures.get(index)).get());
+            } catch (ExecutionException e)
+            {
+                getLog().error(kind + " " + names[index] + " failed: " + e.getCause().getMessage());
+                
+                if (firstError == null)
+                {
+                    firstError = e.getCause();
+                }
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + kind + " " + names[index]);
+            }
+        }
+        
+        if (firstError instanceof SQLException)
+        {
+            throw (SQLException) firstError;
+        } else if (firstError instanceof IOException)
+        {
+            throw (IOException) firstError;
+        } else if (firstError instanceof SplitterException)
+        {
+            throw (SplitterException) firstError;
+        } else if (firstError instanceof MojoFailureException)
+        {
+            throw (MojoFailureException) firstError;
+        } else if (firstError != null)
+        {
+            throw new RuntimeException(firstError);
+        }
+        return results;
+    }
+
+    /**
+     * Runs the packages in parallel, each worker in its own schema provisioned from the template schema
+     * so packages sharing fixture tables do not conflict
+     * 
+     * @param surefireDir
+     * @param packages the packages to test
+     * @param flakyHistory where runs are recorded, may be null
+     * @return the merged results
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
+     * @throws MojoFailureException
+     */
+    protected TestResults runWorkers(final File surefireDir,String[] packages,final FlakyHistory flakyHistory) throws ClassNotFoundException, SQLException, IOException, SplitterException, MojoFailureException
+    {
+        final WorkerSchemas schemas = new WorkerSchemas(StringUtils.defaultString(workerTemplateSchema, username), 
+                                                        workerProvisionStatement, workerTeardownStatement, getLog());
+        final List queue = new LinkedList(Arrays.asList(packages));
+        final AdaptiveLimiter limiter = adaptiveConcurrency ? new AdaptiveLimiter(minConcurrency, workers, latencyTolerance, getLog()) : null;
+        String[] workerNames = new String[workers];
+        
+        Connection conn = openConnection();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        
+        try
+        {
+            Callable adminConnector = new Callable()
+            {
+                public Object call() throws Exception
+                {
+                    return openConnection();
+                }
+            };
+            // holds the connection of the provisioning, replaced on reconnect
+            Connection[] admin = { conn };
+            try
+            {
+                checkPreflight(admin, adminConnector, packages);
+            } finally
+            {
+                conn = admin[0];
+            }
+            
+            long startTime = System.currentTimeMillis();
+            
+            for (int index = 0; index < workers; index++)
+            {
+                workerNames[index] = (workerSchemaPrefix + (index + 1)).toUpperCase();
+                schemas.provision(conn, workerNames[index], recycleWorkers);
+            }
+            
+            long provisionTime = System.currentTimeMillis() - startTime;
+            
+            List futures = new ArrayList();
+            
+            for (int index = 0; index < workers; index++)
+            {
+                final String worker = workerNames[index];
+                
+                futures.add(executor.submit(new Callable()
+                {
+                    public Object call() throws Exception
+                    {
+                        TestResults workerResults = new TestResults();
+                        Callable connector = new Callable()
+                        {
+                            public Object call() throws Exception
+                            {
+                                long connectStart = traceRecorder == null ? 0 : traceRecorder.now();
+                                Connection workerConn = schemas.connect(url, username, password, worker);
+                                traceSpan("connect " + worker, "connect", connectStart);
+                                
+                                initSession(workerConn, worker);
+                                return workerConn;
+                            }
+                        };
+                        // holds the worker connection, replaced on reconnect. It is opened once the worker 
+                        // may run a package and, with adaptive concurrency, closed while the limit is lower 
+                        // than the sessions open, so the database only sees as many sessions as the limit
+                        Connection[] session = { null };
+                        try
+                        {
+                            UtplsqlRunner runner = createRunner(surefireDir);
+                            
+                            while (true)
+                            {
+                                String pkg;
+                                
+                                synchronized (queue)
+                                {
+                                    if (queue.isEmpty())
+                                    {
+                                        return workerResults;
+                                    }
+                                    pkg = (String) queue.remove(0);
+                                }
+                                
+                                TestResults pkgTestResults;
+                                
+                                if (limiter != null)
+                                {
+                                    limiter.acquire();
+                                    
+                                    long latency = 0;
+                                    boolean completed = false;
+                                    try
+                                    {
+                                        if (session[0] == null)
+                                        {
+                                            session[0] = connect(connector, worker);
+                                            limiter.sessionOpened();
+                                        }
+                                        latency = probeLatency(session[0]);
+                                        pkgTestResults = runPackage(runner, session, connector, pkg, flakyHistory);
+                                        completed = true;
+                                    } finally
+                                    {
+                                        limiter.release(latency, !completed);
+                                    }
+                                    
+                                    if (limiter.releaseSession())
+                                    {
+                                        session[0].close();
+                                        session[0] = null;
+                                    }
+                                }
+                                else
+                                {
+                                    if (session[0] == null)
+                                    {
+                                        session[0] = connect(connector, worker);
+                                    }
+                                    pkgTestResults = runPackage(runner, session, connector, pkg, flakyHistory);
+                                }
+                                
+                                checkForNoTests(pkg, pkgTestResults);
+                                
+                                workerResults.append(pkgTestResults);
+                            }
+                        } finally
+                        {
+                            if (session[0] != null)
+                            {
+                                session[0].close();
+                                
+                                if (limiter != null)
+                                {
+                                    limiter.sessionClosed();
+                                }
+                            }
+                        }
+                    }
+                }));
+            }
+            
+            TestResults testResults = new TestResults();
+            
+            for (Iterator i = waitForAll(futures, "Worker", workerNames).iterator(); i.hasNext();)
+            {
+                testResults.append((TestResults) i.next());
+            }
+            
+            long runTime = System.currentTimeMillis() - startTime - provisionTime;
+            
+            getLog().info("Provisioned " + workers + " workers in " + provisionTime + "ms, packages ran in " + runTime + 
+                          "ms against " + testResults.getDuration() + "ms of package time" +
+                          (runTime + provisionTime > 0 ? ", speedup " + (testResults.getDuration() * 100 / (runTime + provisionTime)) / 100.0 : ""));
+            
+            return testResults;
+        } finally
+        {
+            executor.shutdownNow();
+            
+            try
+            {
+                // the workers must have closed their sessions before their schemas can be dropped
+                if (!executor.awaitTermination(2, TimeUnit.MINUTES))
+                {
+                    getLog().warn("Gave up waiting for the workers to stop");
+                }
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            
+            if (!recycleWorkers)
+            {
+                for (int index = 0; index < workers && workerNames[index] != null; index++)
+                {
+                    try
+                    {
+                        schemas.teardown(conn, workerNames[index]);
+                    } catch (SQLException e)
+                    {
+                        getLog().warn("Could not drop worker schema " + workerNames[index] + ": " + e.getMessage());
+                    }
+                }
+            }
+            conn.close();
+        }
+    }
+
+    /**
+     * Reduces the packages to those affected by changed source files
+     * 
+     * @param packages the configured packages
+     * @return the packages to test
+     * @throws IOException if a source file can not be read
+     */
+    protected String[] selectChangedPackages(String[] packages) throws IOException
+    {
+        List files;
+        
+        if (changedSources != null)
+        {
+            files = Arrays.asList(changedSources);
+        }
+        else
+        {
+            long since = lastRunFile.exists() ? lastRunFile.lastModified() : 0;
+            String[] extensions = sourceExtensions != null ? sourceExtensions : DEFAULT_SOURCE_EXTENSIONS;
+            
+            files = SourceSelector.findChangedFiles(sourceDirectory, extensions, since);
+        }
+        
+        String[] selected = SourceSelector.select(packages, SourceSelector.parseDefinedNames(files), testPackagePrefix);
+        
+        getLog().info(files.size() + " changed source files, testing " + selected.length + " of " + packages.length + " packages");
+        
+        return selected;
+    }
+
+    /**
+     * Loads the JDBC driver and connects to the database
+     * 
+     * @return the connection
+     * @throws ClassNotFoundException if the JDBC driver is not found
+     * @throws SQLException if the connection can not be opened
+     */
+    protected Connection openConnection() throws ClassNotFoundException, SQLException
+    {
+        getLog().debug("using JDBC driver : " + driver);
+        Class.forName(driver);
+
+        long start = traceRecorder == null ? 0 : traceRecorder.now();
+        Connection conn = DriverManager.getConnection(url, username, password);
+        
+        traceSpan("connect", "connect", start);
+        
+        return conn;
+    }
+    
+    /**
+     * Records a span ending now if the run is traced
+     * 
+     * @param name
+     * @param category
+     * @param start the start time from the trace recorder
+     */
+    protected void traceSpan(String name,String category,long start)
+    {
+        if (traceRecorder != null)
+        {
+            traceRecorder.span(name, category, start);
+        }
+    }
+
+    /**
+     * @return true if the suite runs as one utplsql.testsuite call
+     */
+    protected boolean isSuiteRun()
+    {
+        return !StringUtils.isEmpty(testSuiteName) && !suiteExpanded;
+    }
+    
+    /**
+     * Reads the member packages of the suite, in suite order, to run them as individual packages. The owner, 
+     * prefix and samepackage flag of each member are kept to be given to utplsql.test
+     * 
+     * @return the member packages
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    protected String[] expandSuite() throws ClassNotFoundException, SQLException
+    {
+        List members = new ArrayList();
+        suiteMemberOptions = new HashMap();
+        Connection conn = openConnection();
+        try
+        {
+            PreparedStatement stmt = conn.prepareStatement("select p.name, p.owner, p.prefix, p.samepackage from ut_suite s, ut_package p " +
+                                                           "where s.id = p.suite_id and s.name = upper(?) order by p.seq");
+            try
+            {
+                stmt.setString(1, testSuiteName);
+                ResultSet rs = stmt.executeQuery();
+                
+                while (rs.next())
+                {
+                    String member = rs.getString(1);
+                    String[] options = { rs.getString(2), rs.getString(3), rs.getString(4) };
+                    
+                    members.add(member);
+                    suiteMemberOptions.put(member, options);
+                    
+                    getLog().info("Suite member " + member + ": owner " + StringUtils.defaultString(options[0], "<user>") + 
+                                  ", prefix " + StringUtils.defaultString(options[1], testPackagePrefix) + 
+                                  ", samepackage " + StringUtils.defaultString(options[2], "N"));
+                }
+            } finally
+            {
+                stmt.close();
+            }
+        } finally
+        {
+            conn.close();
+        }
+        
+        getLog().info("Suite " + testSuiteName + " expanded into " + members.size() + " packages");
+        
+        suiteExpanded = true;
+        
+        return (String[]) members.toArray(new String[members.size()]);
+    }
+
+    /**
+     * Opens the history sink on its own connection, running without history if it can't
+     * 
+     * @throws ClassNotFoundException
+     */
+    protected void openHistory() throws ClassNotFoundException
+    {
+        Connection historyConn = null;
+        try
+        {
+            historyConn = openConnection();
+            historySink = new HistorySink(historyConn, historyTable, historyBatchSize, getLog());
+        } catch (SQLException e)
+        {
+            getLog().warn("Could not open the utPLSQL history table " + historyTable + ", running without history: " + e.getMessage());
+            
+            if (historyConn != null)
+            {
+                try
+                {
+                    historyConn.close();
+                } catch (SQLException ce)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the test packages matching the includes and not the excludes to the configured packages
+     * 
+     * @param packages the configured packages, may be null
+     * @return the packages to test
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     * @throws IOException
+     */
+    protected String[] discoverPackages(String[] packages) throws ClassNotFoundException, SQLException, IOException
+    {
+        List discovered;
+        
+        if (useDiscoveryCache && discoveryCacheFile.exists())
+        {
+            discovered = PackageDiscovery.readCache(discoveryCacheFile);
+            
+            getLog().info("Read " + discovered.size() + " test packages from " + discoveryCacheFile);
+        }
+        else
+        {
+            long start = System.currentTimeMillis();
+            Connection conn = openConnection();
+            try
+            {
+                PackageDiscovery discovery = new PackageDiscovery(includes, excludes);
+                discovered = discovery.discover(conn, "run".equalsIgnoreCase(testMethod) ? null : testPackagePrefix);
+                
+                if (!discovery.getSkipped().isEmpty())
+                {
+                    getLog().warn("Skipped " + discovery.getSkipped().size() + " packages matching the includes without the test package prefix " + 
+                                  testPackagePrefix + ": " + mergePackageNames((String[]) discovery.getSkipped().toArray(new String[0])));
+                }
+            } finally
+            {
+                conn.close();
+            }
+            
+            PackageDiscovery.writeCache(discoveryCacheFile, discovered);
+            
+            getLog().info("Discovered " + discovered.size() + " test packages in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        
+        List merged = new ArrayList();
+        // package names are not case sensitive in the database
+        Set seen = new HashSet();
+        
+        if (packages != null)
+        {
+            merged.addAll(Arrays.asList(packages));
+            
+            for (int index = 0; index < packages.length; index++)
+            {
+                seen.add(packages[index].toUpperCase());
+            }
+        }
+        for (Iterator i = discovered.iterator(); i.hasNext();)
+        {
+            String name = (String) i.next();
+            
+            if (seen.add(name.toUpperCase()))
+            {
+                merged.add(name);
+            }
+        }
+        return (String[]) merged.toArray(new String[merged.size()]);
+    }
+
+    /**
+     * Times a round trip to the database
+     * 
+     * @param conn
+     * @return the latency in microseconds
+     * @throws SQLException
+     */
+    protected long probeLatency(Connection conn) throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        try
+        {
+            long start = System.nanoTime();
+            
+            stmt.executeQuery("select 1 from dual").close();
+            
+            return (System.nanoTime() - start) / 1000;
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Runs the pre-flight check, re-opening the connection when it is lost during the check
+     * 
+     * @param session holds the connection, replaced by the new one on reconnect
+     * @param connector opens and initialises a new connection
+     * @param packages the packages to test
+     * @throws SQLException
+     * @throws IOException
+     * @throws MojoFailureException
+     */
+    protected void checkPreflight(Connection[] session,Callable connector,String[] packages) throws SQLException, IOException, MojoFailureException
+    {
+        int[] reconnects = { 0 };
+        
+        while (true)
+        {
+            try
+            {
+                checkPreflight(session[0], packages);
+                return;
+            } catch (SQLException e)
+            {
+                session[0] = reconnect(session[0], connector, "check the packages", e, reconnects);
+            }
+        }
+    }
+
+    /**
+     * Checks in one query that utPLSQL is reachable and that the test packages and the programs they test 
+     * exist and are valid, failing with every problem found before any test runs
+     * 
+     * @param conn
+     * @param packages the packages to test
+     * @throws SQLException
+     * @throws MojoFailureException
+     */
+    protected void checkPreflight(Connection conn,String[] packages) throws SQLException, MojoFailureException
+    {
+        if (!preflight)
+        {
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        
+        // the run method is given the test package itself
+        PreflightCheck check = new PreflightCheck(testPackagePrefix, !"run".equalsIgnoreCase(testMethod));
+        String[] names = StringUtils.isEmpty(packageName) ? packages : new String[] { packageName };
+        // the members of an expanded suite are checked with their own owner and prefix
+        List problems = check.check(conn, names, isSuiteRun() || suiteExpanded ? testSuiteName : null);
+        
+        getLog().debug("Pre-flight check took " + (System.currentTimeMillis() - start) + "ms");
+        
+        for (Iterator i = check.getWarnings().iterator(); i.hasNext();)
+        {
+            getLog().warn((String) i.next());
+        }
+        
+        if (!problems.isEmpty())
+        {
+            StringBuffer sb = new StringBuffer("\n\n-------------------------\nutPLSQL Pre-flight Check Failed" +
+                                               "\n-------------------------\n");
+            
+            for (Iterator i = problems.iterator(); i.hasNext();)
+            {
+                sb.append(i.next()).append('\n');
+            }
+            throw new MojoFailureException(sb.toString());
+        }
+    }
+    
+    /**
+     * Runs the session initialisation stage on a connection before any package is timed
+     * 
+     * @param conn
+     * @param sessionName the target or worker or the default session, for the log. Never the url, which may hold credentials
+     * @throws SQLException
+     */
+    protected void initSession(Connection conn,String sessionName) throws SQLException
+    {
+        SessionInitializer initializer = new SessionInitializer(sessionInitStatements, warmupStatements, keepPackages, getLog());
+        
+        if (initializer.isEmpty())
+        {
+            return;
+        }
+        
+        long start = traceRecorder == null ? 0 : traceRecorder.now();
+        long time = initializer.initialize(conn);
+        
+        traceSpan("session init " + sessionName, "connect", start);
+        
+        synchronized (this)
+        {
+            sessionInitTime += time;
+        }
+        
+        getLog().info("Session " + sessionName + " initialised in " + time + "ms");
+    }
+
+    /**
+     * Creates a runner writing its reports to the given directory
+     * 
+     * @param surefireDir
+     * @return the configured runner
+     */
+    protected UtplsqlRunner createRunner(File surefireDir)
+    {
+        UtplsqlRunner runner = new UtplsqlRunner(surefireDir, getLog());
+        runner.setEventLog(eventLog);
+        runner.setTraceRecorder(traceRecorder);
+        runner.setHistorySink(historySink);
+        runner.setPackageOptions(suiteMemberOptions);
+        
+        if (!StringUtils.isEmpty(fixtureMode))
+        {
+            runner.setFixtureIsolation(new FixtureIsolation(fixtureMode, fixtureTables, testPackagePrefix, getLog()));
+        }
+        
+        if (!StringUtils.isEmpty(profiler))
+        {
+            runner.setProfiler(profiler, profilerDirectory, hotSpotCount);
+        }
+        if (captureDbmsOutput)
+        {
+            runner.setDbmsOutput(new DbmsOutput(dbmsOutputChunkSize, systemOutMaxSize));
+        }
+        if (collectSessionStatistics)
+        {
+            runner.setSessionStatistics(new SessionStatistics(sessionStatistics != null ? sessionStatistics : SessionStatistics.DEFAULT_STATISTICS));
+        }
+        return runner;
+    }
+
+    /**
+     * Runs a package re-running it while tests fail up to rerunFailingTestsCount times
      * 
-     * @parameter expression=false
-     */
-    private Boolean writeFailuresToConsole;
-    
-    /**
-     * Do the main work of the plugin here.
+     * @param runner
+     * @param conn
+     * @param pkg the package to test
+     * @param flakyHistory where runs are recorded, may be null
+     * @return the results of the last run
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
      */
-    public void execute() throws MojoExecutionException, MojoFailureException
+    protected TestResults runPackage(UtplsqlRunner runner,Connection conn,String pkg,FlakyHistory flakyHistory) throws SQLException, IOException, SplitterException
     {
-        Connection conn = null;
-
-        final String TEST_PKG   = "utplsql:Testing package ";
-        final String TEST_SUITE = "utplsql:Testing suite  ";
+        SureFireReport report = runner.getSureFireReport();
         
-        try
+        if (resume && checkpoint != null)
         {
-            getLog().debug("using JDBC driver : " + driver);
-            Class.forName(driver);
-
-            conn = DriverManager.getConnection(url, username, password);
-
-            TestResults testResults = new TestResults();
-
-            String testTitle = null, testName = null;
-            UtplsqlRunner runner = new UtplsqlRunner(getSurefireDir(), getLog());
-
-            // Run testSuite
-            if (!StringUtils.isEmpty(testSuiteName))
+            TestResults completed = checkpoint.restore(report.getSuiteName(pkg));
+            
+            if (completed != null)
             {
-                testResults = runner.runTestSuite(conn,testSuiteName, testMethod, setupMethod);
-                testName = testSuiteName;
-                testTitle = TEST_SUITE + testName;
-
+                getLog().info("Package " + pkg + " completed as run_id " + completed.getRunId() + " before the run was interrupted, not run again");
+                return completed;
             }
-            // Run packageName
-            else if (!StringUtils.isEmpty(packageName))
+        }
+        
+        TestResults pkgTestResults = runner.runPackage(conn, pkg, testMethod, setupMethod);
+        ArrayList previousFailures = new ArrayList();
+        
+        for (int rerun = 1; rerun <= rerunFailingTestsCount && pkgTestResults.getFailures() > 0; rerun++)
+        {
+            getLog().info("Re-running package " + pkg + " after " + pkgTestResults.getFailures() + 
+                          " failures, re-run " + rerun + " of " + rerunFailingTestsCount);
+            
+            previousFailures.addAll(pkgTestResults.getFailedTests());
+            
+            TestResults rerunResults = new TestResults();
+            rerunResults.setPreviousFailures(previousFailures);
+            
+            pkgTestResults = runner.runPackage(conn, pkg, testMethod, setupMethod, rerunResults);
+        }
+        
+        boolean flaky = !previousFailures.isEmpty() && pkgTestResults.getFailures() == 0;
+        
+        if (flaky)
+        {
+            getLog().warn("Package " + pkg + " is flaky, it passed on a re-run");
+        }
+        
+        if (flakyHistory != null)
+        {
+            // a package can be flaky against one target only
+            String suite = report.getSuiteName(pkg);
+            
+            flakyHistory.record(suite, flaky);
+            
+            if (flakyHistory.getFlakyRuns(suite) > 0)
             {
-                testResults = runner.runPackage(conn, packageName, testMethod, setupMethod);
-                testName = packageName;
-                testTitle = TEST_PKG + testName;
-
+                getLog().info(suite + " flaky in " + flakyHistory.getFlakyRuns(suite) + " of " + 
+                              flakyHistory.getRuns(suite) + " runs (" + flakyHistory.getFlakyRate(suite) + "%)");
             }
-            // Run packages
-            else 
+        }
+        
+        if (checkpoint != null)
+        {
+            checkpoint.record(report.getSuiteName(pkg), pkgTestResults, report.getReportFile(pkg, "-report.xml"));
+        }
+        return pkgTestResults;
+    }
+    
+    /**
+     * Runs a package, re-opening the connection and running the package again when the connection is lost
+     * 
+     * @param runner
+     * @param session holds the connection, replaced by the new one on reconnect
+     * @param connector opens and initialises a new connection
+     * @param pkg the package to test
+     * @param flakyHistory where runs are recorded, may be null
+     * @return the results of the last run
+     * @throws SQLException
+     * @throws IOException
+     * @throws SplitterException
+     */
+    protected TestResults runPackage(UtplsqlRunner runner,Connection[] session,Callable connector,String pkg,FlakyHistory flakyHistory) throws SQLException, IOException, SplitterException
+    {
+        int[] reconnects = { 0 };
+        
+        while (true)
+        {
+            try
             {
-                TestResults pkgTestResults;
-                
-                for (int index = 0; index < packages.length;index++)
-                {  
-                    pkgTestResults = runner.runPackage(conn, packages[index], testMethod, setupMethod);
-                    
-                    // We need to check for 0 tests run on each package otherwise we may miss an error
-                    checkForNoTests(packages[index],pkgTestResults);
-                                        
-                    testResults.append(pkgTestResults);
-                    
-                }
-                
-                testName = mergePackageNames(packages);
-                testTitle = TEST_PKG + testName;
-               
+                return runPackage(runner, session[0], pkg, flakyHistory);
+            } catch (SQLException e)
+            {
+                session[0] = reconnect(session[0], connector, "run package " + pkg, e, reconnects);
             }
-                              
-            reportAndJudge(testResults, testTitle, testName);            
-            
-
-        } catch (ClassNotFoundException e)
+        }
+    }
+    
+    /**
+     * Opens and initialises a connection, re-opening it when it is lost on the way
+     * 
+     * @param connector opens and initialises a new connection
+     * @param sessionName the target or worker or the default session, for the log
+     * @return the connection
+     * @throws SQLException
+     * @throws IOException
+     */
+    protected Connection connect(Callable connector,String sessionName) throws SQLException, IOException
+    {
+        try
         {
-            throw new MojoExecutionException("JDBC Driver class not found", e);
+            return (Connection) connector.call();
         } catch (SQLException e)
         {
-            throw new MojoExecutionException("Problem connecting to DB or executing SQL", e);
-        } catch (IOException e)
+            return reconnect(null, connector, "open session " + sessionName, e, new int[1]);
+        } catch (RuntimeException e)
         {
-            throw new MojoExecutionException("Could not build report", e);
-        } catch (SplitterException e)
+            throw e;
+        } catch (Exception e)
         {
-            throw new MojoExecutionException("utPLSQL results not in expected format", e);
-        } catch (MojoFailureException e)
+            throw new IOException("Could not open session " + sessionName + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Re-opens a lost connection, retrying until maxReconnects attempts are used up
+     * 
+     * @param lost the lost connection, closed. May be null
+     * @param connector opens and initialises a new connection
+     * @param task what the connection was lost doing, for the log
+     * @param e the error the connection was lost with
+     * @param reconnects the number of attempts made for the task, counted up by each attempt
+     * @return the new connection
+     * @throws SQLException e if it doesn't mean the connection was lost, or the last attempt's error
+     * @throws IOException if interrupted
+     */
+    protected Connection reconnect(Connection lost,Callable connector,String task,SQLException e,int[] reconnects) throws SQLException, IOException
+    {
+        if (reconnects[0] >= maxReconnects || !isConnectionLost(e))
         {
             throw e;
-        } finally
+        }
+        
+        if (lost != null)
         {
-            if (conn != null)
+            try
             {
-                try
-                {
-                    conn.close();
-                } catch (SQLException e)
-                {
-                }
+                lost.close();
+            } catch (SQLException ce)
+            {
+            }
+        }
+        
+        SQLException last = e;
+        
+        while (reconnects[0] < maxReconnects)
+        {
+            reconnects[0]++;
+            
+            getLog().warn("Connection lost, reconnecting " + reconnects[0] + " of " + maxReconnects + " to " + task + ": " + last.getMessage());
+            try
+            {
+                // give a restarting instance or listener time to come back
+                Thread.sleep(1000L * reconnects[0]);
+                
+                return (Connection) connector.call();
+            } catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted reconnecting to " + task);
+            } catch (SQLException ce)
+            {
+                // the database may still be coming back, the attempt counts and the next one waits longer
+                last = ce;
+            } catch (Exception ce)
+            {
+                throw new IOException("Could not reconnect to " + task + ": " + ce.getMessage());
             }
         }
+        throw last;
+    }
+    
+    /**
+     * @param e
+     * @return true if the error means the connection to the database was lost
+     */
+    protected boolean isConnectionLost(SQLException e)
+    {
+        if (e instanceof SQLRecoverableException)
+        {
+            return true;
+        }
+        
+        switch (e.getErrorCode())
+        {
+        case 28:    // ORA-00028 your session has been killed
+        case 1012:  // ORA-01012 not logged on
+        case 1089:  // ORA-01089 immediate shutdown in progress
+        case 3113:  // ORA-03113 end-of-file on communication channel
+        case 3114:  // ORA-03114 not connected to ORACLE
+        case 3135:  // ORA-03135 connection lost contact
+        case 17002: // Io exception
+        case 17008: // Closed Connection
+        case 17410: // No more data to read from socket
+            return true;
+        default:
+            return false;
+        }
     }
 
     /**
@@ -226,10 +2030,40 @@ public class UtplsqlMojo extends AbstractMojo
      */
     protected void reportAndJudge(TestResults testResults, String testTitle, String testName) throws MojoFailureException
     {
+        reportAndJudge(testResults, testTitle, testName, null);
+    }
+    /**
+     * Inform user of testing outcome, with a summary per connection target
+     * 
+     * @param testResults the merged results
+     * @param testTitle the title of the test
+     * @param testName the name of the test
+     * @param targetResults the results of each target by target name, may be null
+     * @throws MojoFailureException if any tests fail or 0 tests were run
+     */
+    protected void reportAndJudge(TestResults testResults, String testTitle, String testName, Map targetResults) throws MojoFailureException
+    {
+        if (targetResults != null)
+        {
+            StringBuffer summary = new StringBuffer("\n------------------------------------\nTARGETS\n------------------------------------");
+            
+            for (Iterator i = targetResults.entrySet().iterator(); i.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                TestResults results = (TestResults) entry.getValue();
+                
+                summary.append("\n" + entry.getKey() + ": Tests run: " + results.getTestsRun() + 
+                               ", Failures: " + results.getFailures() + ", Flakes: " + results.getFlakes());
+            }
+            getLog().info(summary.toString());
+        }
 
         getLog().info("\n------------------------------------\n" + "TESTS\n" + "------------------------------------\n" + testTitle + "\n"
                         + "Successes: " + testResults.getSuccesses() + ", Failures: " + testResults.getFailures() + "\n\n" + "Results:\n"
-                        + "Tests run: " + testResults.getTestsRun() + ", Failures: " + testResults.getFailures() + "\n");
+                        + "Tests run: " + testResults.getTestsRun() + ", Failures: " + testResults.getFailures() + 
+                        ", Flakes: " + testResults.getFlakes() + "\n" +
+                        (sessionInitTime > 0 ? "Session initialisation: " + sessionInitTime + "ms, not included in package times\n" : "") +
+                        (testResults.getFixtureSetupsSaved() > 0 ? "Fixture isolation saved " + testResults.getFixtureSetupsSaved() + " setup and teardown calls\n" : ""));
 
         if (writeFailuresToConsole.booleanValue())
         {
@@ -240,6 +2074,8 @@ public class UtplsqlMojo extends AbstractMojo
             }
         }
 
+        List slowdowns = compareWithBaseline(testResults);
+
         // Lets warn if any failure conditions occured
         if (testResults.getFailures() > 0)
         {
@@ -248,7 +2084,178 @@ public class UtplsqlMojo extends AbstractMojo
 
         checkForNoTests(testName,testResults);
         
+        if (failOnSlowdown && !slowdowns.isEmpty())
+        {
+            throw new MojoFailureException("utPLSQL tests slower than baseline");
+        }
+    }
+    /**
+     * Compares the durations of the run with the baseline and lists the worst slowdowns 
+     * 
+     * @param testResults
+     * @return the slowdowns, worst first
+     */
+    protected List compareWithBaseline(TestResults testResults)
+    {
+        if (baselineFile == null || !baselineFile.exists())
+        {
+            return Collections.EMPTY_LIST;
+        }
+        
+        List slowdowns;
+        try
+        {
+            slowdowns = new PerformanceBaseline(baselineFile).compare(testResults.getDurations(), baselineTolerance, baselineMinimumDelta);
+        } catch (IOException e)
+        {
+            getLog().warn("Could not read baseline " + baselineFile + ": " + e.getMessage());
+            return Collections.EMPTY_LIST;
+        }
+        
+        if (!slowdowns.isEmpty())
+        {
+            getLog().warn(slowdowns.size() + " packages slower than baseline:");
+            
+            for (int index = 0; index < slowdowns.size() && index < slowdownReportCount; index++)
+            {
+                getLog().warn("  " + slowdowns.get(index));
+            }
+        }
+        return slowdowns;
+    }
+    /**
+     * Writes the session statistics of each package as CSV
+     * 
+     * @param testResults
+     * @throws IOException
+     */
+    protected void writeResourceSummary(TestResults testResults) throws IOException
+    {
+        String[] names = sessionStatistics != null ? sessionStatistics : SessionStatistics.DEFAULT_STATISTICS;
+        StringBuffer csv = new StringBuffer("package");
+        
+        for (int index = 0; index < names.length; index++)
+        {
+            csv.append(",\"" + names[index] + "\"");
+        }
+        
+        for (Iterator i = testResults.getStatistics().entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            Map statistics = (Map) entry.getValue();
+            
+            csv.append("\n" + entry.getKey());
+            for (int index = 0; index < names.length; index++)
+            {
+                csv.append("," + StringUtils.defaultString(ObjectUtils.toString(statistics.get(names[index]))));
+            }
+        }
+        
+        FileUtils.writeStringToFile(resourceSummaryFile, csv.append("\n").toString());
+    }
+    
+    /**
+     * Compares the session statistics of each package with its budget 
+     * 
+     * @param testResults
+     * @throws MojoFailureException if a package went over budget
+     */
+    protected void checkResourceBudgets(TestResults testResults) throws MojoFailureException
+    {
+        if (budgets == null || budgets.isEmpty())
+        {
+            return;
+        }
+        
+        List overBudget = new ArrayList();
+        
+        for (Iterator i = testResults.getStatistics().entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String suiteName = (String) entry.getKey();
+            Map statistics = (Map) entry.getValue();
+            
+            String pkg = getPackageOfSuite(suiteName);
+            
+            for (Iterator j = statistics.entrySet().iterator(); j.hasNext();)
+            {
+                Map.Entry stat = (Map.Entry) j.next();
+                long value = ((Long) stat.getValue()).longValue();
+                
+                Long budget = getBudget(pkg, (String) stat.getKey());
+                
+                if (budget != null && value > budget.longValue())
+                {
+                    overBudget.add(suiteName + " " + stat.getKey() + "=" + value + " over budget of " + budget);
+                }
+            }
+        }
+        
+        if (!overBudget.isEmpty())
+        {
+            for (Iterator i = overBudget.iterator(); i.hasNext();)
+            {
+                getLog().error((String) i.next());
+            }
+            throw new MojoFailureException("utPLSQL packages over resource budget");
+        }
+    }
+    
+    /**
+     * Reads the resource budgets
+     * 
+     * @return the budgets by lower case statistic or package:statistic name, null if none
+     * @throws MojoExecutionException if a budget is not a whole number
+     */
+    protected Map parseResourceBudgets() throws MojoExecutionException
+    {
+        if (resourceBudgets == null)
+        {
+            return null;
+        }
+        
+        Map parsed = new LinkedHashMap();
+        
+        for (Iterator i = resourceBudgets.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String name = ((String) entry.getKey()).trim();
+            String value = StringUtils.trimToEmpty((String) entry.getValue());
+            
+            try
+            {
+                parsed.put(name.toLowerCase(), Long.valueOf(value));
+            } catch (NumberFormatException e)
+            {
+                throw new MojoExecutionException("Resource budget " + name + " must be a whole number, not '" + value + "'");
+            }
+        }
+        return parsed;
+    }
+    
+    /**
+     * @param suiteName the name of the suite in the reports
+     * @return the package, which may be schema qualified, without the target name
+     */
+    private String getPackageOfSuite(String suiteName)
+    {
+        for (int index = 0; targets != null && index < targets.length; index++)
+        {
+            if (suiteName.startsWith(targets[index].getName() + "."))
+            {
+                return suiteName.substring(targets[index].getName().length() + 1);
+            }
+        }
+        return suiteName;
+    }
+    
+    private Long getBudget(String pkg,String statistic)
+    {
+        Long budget = (Long) budgets.get((pkg + ":" + statistic).toLowerCase());
+        
+        return budget != null ? budget : (Long) budgets.get(statistic.toLowerCase());
     }
+    
     /**
      * Flags Potential Error In utPLSQL
      * 
@@ -275,6 +2282,27 @@ public class UtplsqlMojo extends AbstractMojo
 
         }
     }
+    /**
+     * @return the configured packages
+     */
+    protected List getTestPackages()
+    {
+        List testPackages = new ArrayList();
+
+        if (!StringUtils.isEmpty(packageName))
+        {
+            testPackages.add(packageName);
+        }
+        if (packages != null)
+        {
+            for (int index = 0; index < packages.length; index++)
+            {
+                testPackages.add(packages[index]);
+            }
+        }
+        return testPackages;
+    }
+
     /**
      * Merges package names together
      * 
@@ -301,11 +2329,25 @@ public class UtplsqlMojo extends AbstractMojo
      * @throws IOException 
      */
     protected File getSurefireDir() throws IOException
+    {        
+        return getSurefireDir(true);
+    }
+    /**
+     * Sets up the report path 
+     * @param clean true to clear any old reports
+     * @return
+     * @throws IOException 
+     */
+    protected File getSurefireDir(boolean clean) throws IOException
     {        
         File surefireDir = new File(outputDirectory,"surefire-reports");
     
         FileUtils.forceMkdir(surefireDir);
-        FileUtils.cleanDirectory(surefireDir);
+        
+        if (clean)
+        {
+            FileUtils.cleanDirectory(surefireDir);
+        }
         
         return surefireDir;
     }
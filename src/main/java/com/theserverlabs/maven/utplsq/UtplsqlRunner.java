@@ -4,9 +4,18 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.logging.Log;
 
 /*
@@ -28,14 +37,112 @@ import org.apache.maven.plugin.logging.Log;
  */
 public class UtplsqlRunner
 {
+    private static final String JOB_RUNS = "UTP_JOB_RUNS";
+    
     Log log;
     File outputDir;
+    String targetName;
+    String profilerType;
+    String profilerDirectory;
+    int hotSpotCount;
+    SessionStatistics sessionStatistics;
+    DbmsOutput dbmsOutput;
+    EventLog eventLog;
+    TraceRecorder traceRecorder;
+    FixtureIsolation fixtureIsolation;
+    HistorySink historySink;
+    Map packageOptions;
     
     public UtplsqlRunner(File  outputDir,Log log)
     {
         this.log  = log;
         this.outputDir = outputDir;
     }
+    /**
+     * @param targetName the name of the database the tests run against, used to name the reports. 
+     * May be null for a single database.
+     */
+    public void setTargetName(String targetName)
+    {
+        this.targetName = targetName;
+    }
+    /**
+     * Profiles each package run and writes a hot-spot report next to its surefire report
+     * 
+     * @param profilerType hprof, profiler or null for no profiling
+     * @param profilerDirectory the Oracle directory object for the DBMS_HPROF trace files
+     * @param hotSpotCount the number of subprograms in the report
+     */
+    public void setProfiler(String profilerType,String profilerDirectory,int hotSpotCount)
+    {
+        this.profilerType = profilerType;
+        this.profilerDirectory = profilerDirectory;
+        this.hotSpotCount = hotSpotCount;
+    }
+    /**
+     * Collects the given session statistics around each package run
+     * 
+     * @param sessionStatistics null for no statistics
+     */
+    public void setSessionStatistics(SessionStatistics sessionStatistics)
+    {
+        this.sessionStatistics = sessionStatistics;
+    }
+    /**
+     * Captures the DBMS_OUTPUT of each package run as system-out of its report
+     * 
+     * @param dbmsOutput null to ignore the output
+     */
+    public void setDbmsOutput(DbmsOutput dbmsOutput)
+    {
+        this.dbmsOutput = dbmsOutput;
+    }
+    /**
+     * Logs the progress of each package run as it happens
+     * 
+     * @param eventLog null for no event log
+     */
+    public void setEventLog(EventLog eventLog)
+    {
+        this.eventLog = eventLog;
+    }
+    /**
+     * Records the execution of each package and the building of its report
+     * 
+     * @param traceRecorder null for no trace
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder)
+    {
+        this.traceRecorder = traceRecorder;
+    }
+    /**
+     * Isolates the fixture changes of each package run, so utPLSQL sets up the fixtures once per package
+     * 
+     * @param fixtureIsolation null to let utPLSQL set up per the setup method
+     */
+    public void setFixtureIsolation(FixtureIsolation fixtureIsolation)
+    {
+        this.fixtureIsolation = fixtureIsolation;
+    }
+    /**
+     * Records the outcomes of each package run in a history table
+     * 
+     * @param historySink null for no history
+     */
+    public void setHistorySink(HistorySink historySink)
+    {
+        this.historySink = historySink;
+    }
+    /**
+     * Gives utplsql.test the owner, prefix and samepackage of a package, as recorded for the members of a suite
+     * 
+     * @param packageOptions the owner, prefix and samepackage flag, as String[3] of which each may be null, 
+     *                       by package name. May be null
+     */
+    public void setPackageOptions(Map packageOptions)
+    {
+        this.packageOptions = packageOptions;
+    }
     /**
      * Run the utPLSQL tests in a single package. This method calls the relevant utPLSQL schema stored procedure and obtains the results, exporting
      * them in a Maven Surefire report.
@@ -52,44 +159,414 @@ public class UtplsqlRunner
      * @return retrieved results
      */
     protected TestResults runPackage(Connection conn,String packageName,String testMethod,String setupMethod) throws SQLException, IOException, SplitterException
+    {
+        return runPackage(conn, packageName, testMethod, setupMethod, new TestResults());
+    }
+    /**
+     * Run the utPLSQL tests in a single package adding the results to the given test results.
+     * 
+     * @param conn
+     *            the database connection to use
+     * @param testResults
+     *            the results to populate, may hold the failures of earlier runs of the package
+     * @throws SQLException
+     *             if there is a problem communicating with the database
+     * @throws IOException
+     *             if there is a problem writing the report file
+     * @throws SplitterException
+     *             if there is a problem generating the report
+     * 
+     * @return retrieved results
+     */
+    protected TestResults runPackage(Connection conn,String packageName,String testMethod,String setupMethod,TestResults testResults) throws SQLException, IOException, SplitterException
     {
         CallableStatement stmt = null;
-        TestResults testResults = new TestResults();
-        String package_stmt = buildPackageStatment(testMethod,setupMethod);
+        boolean drained = false;
+        // isolated fixtures are set up once per package
+        String package_stmt = buildPackageStatment(packageName,testMethod,fixtureIsolation != null ? "FALSE" : setupMethod);
         
         try
         {
             log.info("Running UTPLSQL tests for package " + packageName);
+            
+            SureFireReport report = getSureFireReport();
+            
+            if (eventLog != null)
+            {
+                eventLog.packageStart(report.getSuiteName(packageName));
+            }
 
-            Calendar startTime = Calendar.getInstance();
-             
-            // Call the utPLSQL test() method in PL/SQL, binding in the name
-            // of the package that we want to execute and expecting the run_id
-            // to be passed as an out parameter. We use the run_id to later
-            // look up the results of the test.
-            stmt = conn.prepareCall(package_stmt);
-            stmt.setString(1, packageName);
-            stmt.registerOutParameter(2, Types.NUMERIC);
-            stmt.execute();
+            if (dbmsOutput != null)
+            {
+                dbmsOutput.enable(conn);
+            }
             
-            Calendar endTime = Calendar.getInstance();
+            Map statistics = snapshotStatistics(conn);
             
-            long durationtimeInMsecs = endTime.getTimeInMillis() - startTime.getTimeInMillis();
+            Object fixtureMark = fixtureIsolation == null ? null : fixtureIsolation.begin(conn, packageName);
+            PlsqlProfiler profiler = null;
+            boolean completed = false;
+            try
+            {
+                // Call the utPLSQL test() method in PL/SQL, binding in the name
+                // of the package that we want to execute and expecting the run_id
+                // to be passed as an out parameter. We use the run_id to later
+                // look up the results of the test.
+                stmt = conn.prepareCall(package_stmt);
+                stmt.setString(1, packageName);
+                stmt.registerOutParameter(2, Types.NUMERIC);
+            
+                // only the package run is profiled, not the fetch of its outcomes, and 
+                // only the package run is timed, not the profiler start and analysis
+                profiler = startProfiler(conn, packageName);
+                
+                Calendar startTime = Calendar.getInstance();
+                Calendar endTime;
+                long traceStart = traceRecorder == null ? 0 : traceRecorder.now();
+                try
+                {
+                    stmt.execute();
+                    
+                    endTime = Calendar.getInstance();
+                    
+                    if (traceRecorder != null)
+                    {
+                        traceRecorder.span("execute " + packageName, "execute", traceStart);
+                    }
+                } finally
+                {
+                    profiler = stopProfiler(conn, packageName, profiler);
+                }
+            
+                long durationtimeInMsecs = endTime.getTimeInMillis() - startTime.getTimeInMillis();
             
-            int runId = stmt.getInt(2);
+                int runId = stmt.getInt(2);
             
-            log.debug("Package "+packageName+" runId " + runId);
+                log.debug("Package "+packageName+" runId " + runId);
+            
+                if (statistics != null)
+                {
+                    Map after = snapshotStatistics(conn);
+                
+                    if (after != null)
+                    {
+                        testResults.getStatistics().put(report.getSuiteName(packageName), SessionStatistics.delta(statistics, after));
+                    }
+                }
 
-            // build the report for this run ID
+                if (dbmsOutput != null)
+                {
+                    long drainStart = traceRecorder == null ? 0 : traceRecorder.now();
+                
+                    testResults.setSystemOut(dbmsOutput.drain(conn, report.getReportFile(packageName, "-output.txt")));
+                    drained = true;
+                
+                    if (traceRecorder != null)
+                    {
+                        traceRecorder.span("dbms_output " + packageName, "fetch", drainStart);
+                    }
+                }
+            
+                // build the report for this run ID
 
-            testResults = getSureFireReport().build(conn,runId, packageName,durationtimeInMsecs);
+                testResults = report.build(conn,runId, packageName,durationtimeInMsecs,testResults);
+                completed = true;
+            } finally
+            {
+                if (fixtureIsolation != null)
+                {
+                    // the outcomes are read, the fixture changes can go
+                    endFixtureIsolation(conn, fixtureIsolation.getTestPackage(packageName, testMethod), fixtureMark, completed);
+                }
+            }
+            
+            writeHotSpots(conn, packageName, profiler, report);
+            
+            // without isolation utPLSQL would only have set up once per package anyway
+            if (fixtureIsolation != null && "TRUE".equalsIgnoreCase(setupMethod))
+            {
+                String testPackage = fixtureIsolation.getTestPackage(packageName, testMethod);
+                int saved = fixtureIsolation.countSetupsSaved(conn, testPackage);
+                
+                log.debug("Isolated fixtures of " + testPackage + " saved " + saved + " setup and teardown calls");
+                testResults.addFixtureSetupsSaved(saved);
+            }
 
         } finally
         {
-            stmt.close();
+            if (dbmsOutput != null && !drained)
+            {
+                discardOutput(conn, packageName);
+            }
+            // the connection may be lost before the statement is prepared
+            if (stmt != null)
+            {
+                stmt.close();
+            }
         }
         return testResults;
     }
+    /**
+     * Discards the output a failed package run left in the buffer. The connection may be lost, so a failure 
+     * is only logged and the error of the run is the one reported
+     */
+    private void discardOutput(Connection conn,String packageName)
+    {
+        try
+        {
+            dbmsOutput.discard(conn);
+        } catch (SQLException e)
+        {
+            log.debug("Could not discard the DBMS_OUTPUT of " + packageName + ": " + e.getMessage());
+        }
+    }
+    /**
+     * Undoes the fixture changes of a package run. When the run failed the failure to undo them is only 
+     * logged, so the error of the run is the one reported
+     */
+    private void endFixtureIsolation(Connection conn,String testPackage,Object fixtureMark,boolean completed) throws SQLException
+    {
+        try
+        {
+            fixtureIsolation.end(conn, testPackage, fixtureMark);
+        } catch (SQLException e)
+        {
+            if (completed)
+            {
+                throw e;
+            }
+            log.warn("Could not undo the fixture changes of " + testPackage + ": " + e.getMessage());
+        }
+    }
+    /**
+     * Run the utPLSQL tests of the packages as DBMS_SCHEDULER jobs, so the packages run in parallel in the 
+     * database while this client only holds one session. Job completion is polled and the run_id each job 
+     * records under its job name in the UTP_JOB_RUNS table is used to build its Maven Surefire report. The 
+     * jobs still running when the run fails or is interrupted are dropped.
+     * 
+     * @param conn
+     *            the database connection to use
+     * @param parallelism
+     *            the maximum number of jobs running at once
+     * @param pollInterval
+     *            time in msecs between two checks for completed jobs
+     * @throws SQLException
+     *             if there is a problem communicating with the database
+     * @throws IOException
+     *             if there is a problem writing the report file
+     * @throws SplitterException
+     *             if there is a problem generating the report
+     * 
+     * @return retrieved results by package name, in package order
+     */
+    protected Map runPackagesAsJobs(Connection conn,String[] packages,String testMethod,String setupMethod,int parallelism,long pollInterval) throws SQLException, IOException, SplitterException
+    {
+        String jobPrefix = "UTP$" + Long.toString(System.currentTimeMillis(), 36).toUpperCase() + "_";
+        Map jobs = new LinkedHashMap();
+        Map results = new LinkedHashMap();
+        int next = 0;
+        
+        boolean completed = false;
+        
+        createJobRunsTable(conn);
+        
+        CallableStatement submit = conn.prepareCall("begin dbms_scheduler.create_job(job_name => ?, job_type => 'PLSQL_BLOCK', " +
+                                                    "job_action => ?, enabled => TRUE, auto_drop => TRUE); end;");
+        PreparedStatement runId = conn.prepareStatement("select run_id from " + JOB_RUNS + " where job_name = ?");
+        PreparedStatement forget = conn.prepareStatement("delete from " + JOB_RUNS + " where job_name = ?");
+        try
+        {
+            while (next < packages.length || !jobs.isEmpty())
+            {
+                // keep the job slots full
+                while (next < packages.length && jobs.size() < parallelism)
+                {
+                    String jobName = jobPrefix + next;
+                    
+                    log.info("Submitting UTPLSQL tests for package " + packages[next] + " as job " + jobName);
+                    
+                    submit.setString(1, jobName);
+                    submit.setString(2, buildJobAction(jobName, packages[next], testMethod, setupMethod));
+                    submit.execute();
+                    
+                    if (eventLog != null)
+                    {
+                        eventLog.packageStart(getSureFireReport().getSuiteName(packages[next]));
+                    }
+                    
+                    jobs.put(jobName, packages[next]);
+                    results.put(packages[next], null);
+                    next++;
+                }
+                
+                Thread.sleep(pollInterval);
+                
+                long pollStart = traceRecorder == null ? 0 : traceRecorder.now();
+                Map completedJobs = findCompletedJobs(conn, jobs.keySet());
+                
+                if (traceRecorder != null)
+                {
+                    traceRecorder.span("poll jobs", "execute", pollStart);
+                }
+                
+                for (Iterator i = completedJobs.entrySet().iterator(); i.hasNext();)
+                {
+                    Map.Entry completedJob = (Map.Entry) i.next();
+                    String jobName = (String) completedJob.getKey();
+                    String packageName = (String) jobs.remove(jobName);
+                    Object[] details = (Object[]) completedJob.getValue();
+                    
+                    if (!"SUCCEEDED".equals(details[0]))
+                    {
+                        log.error("Job " + jobName + " for package " + packageName + " " + details[0] + ": " + details[2]);
+                    }
+                    
+                    runId.setString(1, jobName);
+                    ResultSet rs = runId.executeQuery();
+                    
+                    TestResults testResults = new TestResults();
+                    
+                    if (!rs.next())
+                    {
+                        log.error("No utPLSQL run recorded by job " + jobName + " for package " + packageName);
+                    }
+                    else
+                    {
+                        int pkgRunId = rs.getInt(1);
+                        
+                        log.debug("Package "+packageName+" runId " + pkgRunId);
+                        
+                        testResults = getSureFireReport().build(conn, pkgRunId, packageName, ((Long) details[1]).longValue());
+                    }
+                    rs.close();
+                    
+                    forget.setString(1, jobName);
+                    forget.executeUpdate();
+                    
+                    results.put(packageName, testResults);
+                }
+            }
+            completed = true;
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for utPLSQL jobs " + jobs.keySet());
+        } finally
+        {
+            if (!completed)
+            {
+                dropJobs(conn, jobs.keySet());
+            }
+            submit.close();
+            runId.close();
+            forget.close();
+        }
+        return results;
+    }
+    /**
+     * Stops and drops the jobs left running by a failed run, jobs which already ended are gone
+     */
+    private void dropJobs(Connection conn,Set jobNames)
+    {
+        for (Iterator i = jobNames.iterator(); i.hasNext();)
+        {
+            String jobName = (String) i.next();
+            try
+            {
+                CallableStatement drop = conn.prepareCall("begin dbms_scheduler.drop_job(job_name => ?, force => TRUE); end;");
+                try
+                {
+                    drop.setString(1, jobName);
+                    drop.execute();
+                    log.info("Dropped utPLSQL job " + jobName);
+                } finally
+                {
+                    drop.close();
+                }
+            } catch (SQLException e)
+            {
+                log.debug("Could not drop utPLSQL job " + jobName + ": " + e.getMessage());
+            }
+        }
+    }
+    /**
+     * Creates the table the jobs record their utPLSQL run_id in, if needed
+     */
+    private void createJobRunsTable(Connection conn) throws SQLException
+    {
+        PreparedStatement exists = conn.prepareStatement("select count(*) from user_tables where table_name = ?");
+        try
+        {
+            exists.setString(1, JOB_RUNS);
+            ResultSet rs = exists.executeQuery();
+            rs.next();
+            
+            if (rs.getInt(1) > 0)
+            {
+                return;
+            }
+        } finally
+        {
+            exists.close();
+        }
+        
+        Statement stmt = conn.createStatement();
+        try
+        {
+            stmt.execute("create table " + JOB_RUNS + " (job_name varchar2(128) primary key, run_id number not null)");
+        } catch (SQLException e)
+        {
+            // ORA-00955, created by a concurrent run
+            if (e.getErrorCode() != 955)
+            {
+                throw e;
+            }
+        } finally
+        {
+            stmt.close();
+        }
+    }
+    /**
+     * Looks up the jobs which have completed
+     * 
+     * @return status, duration in msecs and additional info of each completed job by job name 
+     */
+    private Map findCompletedJobs(Connection conn,Set jobNames) throws SQLException
+    {
+        Map completed = new LinkedHashMap();
+        StringBuffer sb = new StringBuffer();
+        sb.append("select job_name, status, ");
+        sb.append("  round(extract(day from run_duration) * 86400000 + extract(hour from run_duration) * 3600000 + ");
+        sb.append("        extract(minute from run_duration) * 60000 + extract(second from run_duration) * 1000), ");
+        sb.append("  additional_info ");
+        sb.append("from user_scheduler_job_run_details where job_name in (");
+        for (int index = 0; index < jobNames.size(); index++)
+        {
+            sb.append(index == 0 ? "?" : ", ?");
+        }
+        sb.append(")");
+        
+        PreparedStatement stmt = conn.prepareStatement(sb.toString());
+        try
+        {
+            int index = 1;
+            for (Iterator i = jobNames.iterator(); i.hasNext();)
+            {
+                stmt.setString(index++, (String) i.next());
+            }
+            
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next())
+            {
+                completed.put(rs.getString(1), new Object[] { rs.getString(2), Long.valueOf(rs.getLong(3)), rs.getString(4) });
+            }
+        } finally
+        {
+            stmt.close();
+        }
+        return completed;
+    }
     /**
      * Run the utPLSQL tests in a test suite. This method calls the relevant utPLSQL schema stored procedure and obtains the results, exporting them
      * in a Maven Surefire report.
@@ -115,6 +592,11 @@ public class UtplsqlRunner
         try
         {
             log.info("Running UTPLSQL test suite " + testSuiteName);
+            
+            if (eventLog != null)
+            {
+                eventLog.packageStart(getSureFireReport().getSuiteName(testSuiteName));
+            }
 
             Calendar startTime = Calendar.getInstance();
             
@@ -148,7 +630,27 @@ public class UtplsqlRunner
             for (int i = 1; i <= packageCount; i++)
             {
                 int pkgRunId = runId - i;
-                mergedResults.append(report.build(conn,pkgRunId, testSuiteName + "-" + pkgRunId,durationtimeInMsecs));
+                
+                // the package name keeps the reports and durations the same from one run to the next
+                String packageName = getProgramOfRun(conn, pkgRunId);
+                
+                if (packageName == null)
+                {
+                    packageName = testSuiteName + "-" + pkgRunId;
+                }
+                
+                // the packages of the suite are only known once it ran, the report ends each one
+                if (eventLog != null)
+                {
+                    eventLog.packageStart(report.getSuiteName(packageName));
+                }
+                
+                mergedResults.append(report.build(conn,pkgRunId, packageName,durationtimeInMsecs));
+            }
+            
+            if (eventLog != null)
+            {
+                eventLog.packageEnd(report.getSuiteName(testSuiteName), durationtimeInMsecs, mergedResults.getTestsRun(), mergedResults.getFailures());
             }
 
         } finally
@@ -160,18 +662,129 @@ public class UtplsqlRunner
 
     }
     
+    /**
+     * @param runId
+     * @return the package tested by the utPLSQL run or null if the run is not recorded
+     * @throws SQLException
+     */
+    private String getProgramOfRun(Connection conn,int runId) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("select u.program from utr_utp r, ut_utp u where r.run_id = ? and r.utp_id = u.id");
+        try
+        {
+            stmt.setInt(1, runId);
+            ResultSet rs = stmt.executeQuery();
+            
+            return rs.next() ? rs.getString(1) : null;
+        } finally
+        {
+            stmt.close();
+        }
+    }
+    
+    /**
+     * Reads the session statistics if configured, statistics which can't be read are reported and ignored
+     * 
+     * @return the statistic values or null
+     */
+    private Map snapshotStatistics(Connection conn)
+    {
+        if (sessionStatistics == null)
+        {
+            return null;
+        }
+        
+        try
+        {
+            return sessionStatistics.snapshot(conn);
+        } catch (SQLException e)
+        {
+            log.warn("Could not read session statistics: " + e.getMessage());
+            return null;
+        }
+    }
+    /**
+     * Starts profiling if configured, a profiler which can't be started is reported and ignored
+     * 
+     * @return the started profiler or null
+     */
+    private PlsqlProfiler startProfiler(Connection conn,String packageName)
+    {
+        if (profilerType == null)
+        {
+            return null;
+        }
+        
+        PlsqlProfiler profiler = new PlsqlProfiler(profilerType, profilerDirectory, hotSpotCount, log);
+        try
+        {
+            profiler.start(conn, packageName);
+            return profiler;
+        } catch (SQLException e)
+        {
+            log.warn("Could not start " + profilerType + " for package " + packageName + ": " + e.getMessage());
+            return null;
+        }
+    }
+    /**
+     * Stops the profiler, a profiler which can't be stopped is reported and ignored
+     * 
+     * @return the stopped profiler or null if there are no results
+     */
+    private PlsqlProfiler stopProfiler(Connection conn,String packageName,PlsqlProfiler profiler)
+    {
+        if (profiler == null)
+        {
+            return null;
+        }
+        
+        try
+        {
+            profiler.stop(conn, packageName);
+            return profiler;
+        } catch (SQLException e)
+        {
+            log.warn("Could not stop " + profilerType + " for package " + packageName + ": " + e.getMessage());
+            return null;
+        }
+    }
+    /**
+     * Writes the hot-spot report for the package
+     */
+    private void writeHotSpots(Connection conn,String packageName,PlsqlProfiler profiler,SureFireReport report) throws IOException
+    {
+        if (profiler == null)
+        {
+            return;
+        }
+        
+        try
+        {
+            profiler.writeReport(conn, report.getReportFile(packageName, "-hotspots.txt"));
+        } catch (SQLException e)
+        {
+            log.warn("Could not collect " + profilerType + " results for package " + packageName + ": " + e.getMessage());
+        }
+    }
+    
     protected SureFireReport getSureFireReport() throws IOException
     {
-        return new SureFireReport(outputDir,log);
+        SureFireReport report = new SureFireReport(outputDir,log);
+        report.setTargetName(targetName);
+        report.setEventLog(eventLog);
+        report.setTraceRecorder(traceRecorder);
+        report.setHistorySink(historySink);
+        return report;
     }
     /**
      * Build the sql to execute the package      
      * 
+     * @param packageName
      * @param testMethod
      * @param setupMethod
      * @return
      */
-    private String buildPackageStatment(String testMethod,String setupMethod)
+    private String buildPackageStatment(String packageName,String testMethod,String setupMethod)
     {
         StringBuffer sb = new StringBuffer();
         sb.append("begin ");
@@ -181,6 +794,7 @@ public class UtplsqlRunner
         if ("test".equals(testMethod))
         {
             sb.append("recompile_in => FALSE, ");
+            appendPackageOptions(sb, packageName);
         }
         // this hack because JDBC is forbidden from pushing a Boolean to PL/SQL
         sb.append("per_method_setup_in => ");
@@ -191,6 +805,67 @@ public class UtplsqlRunner
         sb.append("end; ");
         return sb.toString();
     }
+    /**
+     * Appends the owner, prefix and samepackage arguments of utplsql.test recorded for the package
+     * 
+     * @param sb
+     * @param packageName
+     */
+    private void appendPackageOptions(StringBuffer sb,String packageName)
+    {
+        String[] options = packageOptions == null ? null : (String[]) packageOptions.get(packageName);
+        
+        if (options == null)
+        {
+            return;
+        }
+        if (options[0] != null)
+        {
+            sb.append("owner_in => '").append(StringUtils.replace(options[0], "'", "''")).append("', ");
+        }
+        if (options[1] != null)
+        {
+            sb.append("prefix_in => '").append(StringUtils.replace(options[1], "'", "''")).append("', ");
+        }
+        if ("Y".equalsIgnoreCase(options[2]))
+        {
+            sb.append("samepackage_in => TRUE, ");
+        }
+    }
+    /**
+     * Build the PL/SQL block a scheduler job runs to test the package and record its run_id
+     * 
+     * @param jobName
+     * @param packageName
+     * @param testMethod
+     * @param setupMethod
+     * @return
+     */
+    private String buildJobAction(String jobName,String packageName,String testMethod,String setupMethod)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("begin ");
+        sb.append("utplsql.");
+        sb.append(testMethod);
+        sb.append("('");
+        sb.append(StringUtils.replace(packageName, "'", "''"));
+        sb.append("', ");
+        if ("test".equals(testMethod))
+        {
+            sb.append("recompile_in => FALSE, ");
+            appendPackageOptions(sb, packageName);
+        }
+        sb.append("per_method_setup_in => ");
+        sb.append(setupMethod);
+        sb.append("); ");
+        // the run_id of this session, another session may be testing the same package
+        sb.append("insert into " + JOB_RUNS + " (job_name, run_id) values ('");
+        sb.append(jobName);
+        sb.append("', utplsql2.runnum); ");
+        sb.append("commit; ");
+        sb.append("end; ");
+        return sb.toString();
+    }
     /**
      * SQL to run a utplsql suite
      * 
@@ -0,0 +1,372 @@
+package com.theserverlabs.maven.utplsq;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Mojo which contains a goal that keeps a database connection open and watches the target schemas for
+ * changed objects, re-running only the test packages which depend on them. A package which fails with an
+ * SQL error, such as the discarded package state after a recompile, is logged and the watch goes on. The
+ * goal runs until it is stopped or the connection is lost.
+ *
+ * @goal watch
+ */
+public class UtplsqlWatchMojo extends UtplsqlMojo
+{
+    private static final int MAX_IN_LIST = 1000;
+
+    /**
+     * The schemas to watch for changes. Defaults to the schema of the connection user.
+     *
+     * @parameter
+     */
+    private String[] watchSchemas;
+
+    /**
+     * The time in msecs between two checks for changed objects. Defaults to 2000.
+     *
+     * @parameter default-value="2000"
+     */
+    private long pollInterval;
+
+    /**
+     * Keep polling the data dictionary and re-run the affected packages on change.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        Connection conn = null;
+
+        try
+        {
+            conn = openConnection();
+            initSession(conn, DEFAULT_SESSION);
+
+            UtplsqlRunner runner = createRunner(getSurefireDir(false));
+            String[] schemas = getWatchSchemas();
+            List testPackages = getTestPackages();
+
+            // LAST_DDL_TIME only has second precision, so the objects changed in the second of 
+            // the last change are polled again and those already seen are left out
+            Set seen = new HashSet();
+            Timestamp lastChange = getLastChange(conn, schemas);
+            getChangedObjects(conn, schemas, lastChange, seen);
+
+            getLog().info("Watching schemas " + mergePackageNames(schemas) + " for changes to " + testPackages.size() + " test packages");
+
+            while (true)
+            {
+                Thread.sleep(pollInterval);
+
+                List changed = getChangedObjects(conn, schemas, lastChange, seen);
+
+                if (changed.isEmpty())
+                {
+                    continue;
+                }
+
+                for (Iterator i = changed.iterator(); i.hasNext();)
+                {
+                    Timestamp change = (Timestamp) ((Object[]) i.next())[2];
+
+                    if (lastChange == null || change.after(lastChange))
+                    {
+                        lastChange = change;
+                    }
+                }
+
+                List affected = getAffectedPackages(conn, testPackages, changed);
+
+                getLog().info("Objects changed, re-running " + affected.size() + " test packages");
+
+                for (Iterator i = affected.iterator(); i.hasNext();)
+                {
+                    String pkg = (String) i.next();
+
+                    try
+                    {
+                        TestResults pkgTestResults = runner.runPackage(conn, pkg, testMethod, setupMethod);
+
+                        getLog().info(pkg + ", failed=" + pkgTestResults.getFailures() +
+                                            ", passed=" + pkgTestResults.getSuccesses() +
+                                            ", total=" + pkgTestResults.getTestsRun());
+                    } catch (SplitterException e)
+                    {
+                        getLog().error("utPLSQL results of package " + pkg + " not in expected format", e);
+                    } catch (SQLException e)
+                    {
+                        if (isConnectionLost(e))
+                        {
+                            throw e;
+                        }
+                        // typically ORA-04068, the package state was discarded by the recompile being watched
+                        getLog().error("Package " + pkg + " failed: " + e.getMessage());
+                        resetPackageState(conn);
+                    }
+                }
+            }
+
+        } catch (ClassNotFoundException e)
+        {
+            throw new MojoExecutionException("JDBC Driver class not found", e);
+        } catch (SQLException e)
+        {
+            throw new MojoExecutionException("Problem connecting to DB or executing SQL", e);
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not build report", e);
+        } catch (InterruptedException e)
+        {
+            getLog().info("Watch interrupted");
+            Thread.currentThread().interrupt();
+        } finally
+        {
+            if (conn != null)
+            {
+                try
+                {
+                    conn.close();
+                } catch (SQLException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the package state of the session so the next runs see the recompiled packages
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    protected void resetPackageState(Connection conn) throws SQLException
+    {
+        CallableStatement stmt = conn.prepareCall("begin dbms_session.reset_package; end;");
+        try
+        {
+            stmt.execute();
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Cheap check for any change in the watched schemas
+     *
+     * @param conn
+     * @param schemas
+     * @return the latest DDL time of the objects in the schemas
+     * @throws SQLException
+     */
+    protected Timestamp getLastChange(Connection conn,String[] schemas) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("select max(last_ddl_time) from all_objects where owner in (" +
+                                                       placeholders(schemas.length) + ")");
+        try
+        {
+            bind(stmt, 1, schemas);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+
+            return rs.getTimestamp(1);
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Finds the objects changed at or after the given time which were not seen yet, adding them to the seen
+     * objects. The objects seen before the given time are forgotten.
+     *
+     * @param conn
+     * @param schemas the watched schemas
+     * @param since the time of the last change, null for all objects
+     * @param seen the owner, name, type and DDL time of the changed objects already tested
+     * @return the owner, name and DDL time of each new change, as Object[3]
+     * @throws SQLException
+     */
+    protected List getChangedObjects(Connection conn,String[] schemas,Timestamp since,Set seen) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("select owner, object_name, object_type, last_ddl_time from all_objects " +
+                                                       "where owner in (" + placeholders(schemas.length) + ") and last_ddl_time >= ?");
+        List changed = new ArrayList();
+        Set polled = new HashSet();
+        try
+        {
+            int index = bind(stmt, 1, schemas);
+            stmt.setTimestamp(index, since == null ? new Timestamp(0) : since);
+
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next())
+            {
+                Timestamp ddlTime = rs.getTimestamp(4);
+                String key = rs.getString(1) + "." + rs.getString(2) + "." + rs.getString(3) + "@" + ddlTime;
+
+                polled.add(key);
+
+                if (!seen.contains(key))
+                {
+                    changed.add(new Object[] { rs.getString(1), rs.getString(2), ddlTime });
+                }
+            }
+        } finally
+        {
+            stmt.close();
+        }
+
+        seen.retainAll(polled);
+        seen.addAll(polled);
+        return changed;
+    }
+
+    /**
+     * Finds the test packages which are, or directly or indirectly depend on, one of the changed objects.
+     *
+     * @param conn
+     * @param testPackages the configured packages
+     * @param changed the owner and name of each changed object, as from getChangedObjects
+     * @return the packages to re-run
+     * @throws SQLException
+     */
+    protected List getAffectedPackages(Connection conn,List testPackages,List changed) throws SQLException
+    {
+        Set names = new HashSet();
+
+        // keep the names of changed objects themselves so a changed test package is re-run too
+        for (Iterator i = changed.iterator(); i.hasNext();)
+        {
+            names.add(((String) ((Object[]) i.next())[1]).toUpperCase());
+        }
+
+        // an IN list takes at most 1000 entries
+        for (int from = 0; from < changed.size(); from += MAX_IN_LIST)
+        {
+            addDependents(conn, changed.subList(from, Math.min(from + MAX_IN_LIST, changed.size())), names);
+        }
+
+        List affected = new ArrayList();
+        String prefix = StringUtils.defaultString(testPackagePrefix).toUpperCase();
+
+        for (Iterator i = testPackages.iterator(); i.hasNext();)
+        {
+            String pkg = (String) i.next();
+
+            if (names.contains(pkg.toUpperCase()) || names.contains(prefix + pkg.toUpperCase()))
+            {
+                affected.add(pkg);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Adds the names of the objects which directly or indirectly depend on the changed objects
+     *
+     * @param conn
+     * @param changed at most MAX_IN_LIST changed objects, as from getChangedObjects
+     * @param names the upper case names found
+     * @throws SQLException
+     */
+    private void addDependents(Connection conn,List changed,Set names) throws SQLException
+    {
+        StringBuffer objects = new StringBuffer();
+
+        for (int index = 0; index < changed.size(); index++)
+        {
+            objects.append(index == 0 ? "(?, ?)" : ", (?, ?)");
+        }
+
+        // walk up the dependency tree from the changed objects
+        PreparedStatement stmt = conn.prepareStatement(
+                        "select name from all_dependencies " +
+                        "start with (referenced_owner, referenced_name) in (" + objects + ") " +
+                        "connect by nocycle prior owner = referenced_owner and prior name = referenced_name");
+        try
+        {
+            int index = 1;
+            for (Iterator i = changed.iterator(); i.hasNext();)
+            {
+                Object[] object = (Object[]) i.next();
+                stmt.setString(index++, (String) object[0]);
+                stmt.setString(index++, (String) object[1]);
+            }
+
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next())
+            {
+                names.add(rs.getString(1).toUpperCase());
+            }
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    private String[] getWatchSchemas()
+    {
+        if (watchSchemas == null || watchSchemas.length == 0)
+        {
+            return new String[] { username.toUpperCase() };
+        }
+
+        String[] schemas = new String[watchSchemas.length];
+
+        for (int index = 0; index < watchSchemas.length; index++)
+        {
+            schemas[index] = watchSchemas[index].toUpperCase();
+        }
+        return schemas;
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuffer sb = new StringBuffer();
+
+        for (int index = 0; index < count; index++)
+        {
+            sb.append(index == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    private static int bind(PreparedStatement stmt,int startIndex,String[] values) throws SQLException
+    {
+        int index = startIndex;
+
+        for (int i = 0; i < values.length; i++)
+        {
+            stmt.setString(index++, values[i]);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,187 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Provisions and tears down the worker schemas used to run conflicting test packages in parallel.
+ * Workers are reached through proxy authentication, user[worker], so they need no password of their own.
+ */
+public class WorkerSchemas
+{
+    /**
+     * Replays the DDL of the template schema into the worker schema with DBMS_METADATA,
+     * binds the worker schema then the template schema. The statements which fail are
+     * collected and raised once the rest are replayed, so a half built worker is not used.
+     */
+    public static final String DEFAULT_PROVISION_STATEMENT =
+          "declare "
+        + "  l_worker   varchar2(128) := ?; "
+        + "  l_template varchar2(128) := ?; "
+        + "  l_handle   number; "
+        + "  l_tr       number; "
+        + "  l_ddls     sys.ku$_ddls; "
+        + "  l_failed   varchar2(4000); "
+        + "  l_failures pls_integer := 0; "
+        + "begin "
+        + "  execute immediate 'create user \"' || l_worker || '\" no authentication'; "
+        + "  execute immediate 'alter user \"' || l_worker || '\" grant connect through \"' || user || '\"'; "
+        + "  l_handle := dbms_metadata.open('SCHEMA_EXPORT'); "
+        + "  dbms_metadata.set_filter(l_handle, 'SCHEMA', l_template); "
+        + "  dbms_metadata.set_filter(l_handle, 'EXCLUDE_PATH_EXPR', 'IN (''USER'', ''PROXY'')'); "
+        + "  l_tr := dbms_metadata.add_transform(l_handle, 'MODIFY'); "
+        + "  dbms_metadata.set_remap_param(l_tr, 'REMAP_SCHEMA', l_template, l_worker); "
+        + "  l_tr := dbms_metadata.add_transform(l_handle, 'DDL'); "
+        + "  loop "
+        + "    l_ddls := dbms_metadata.fetch_ddl(l_handle); "
+        + "    exit when l_ddls is null; "
+        + "    for i in 1 .. l_ddls.count loop "
+        + "      begin "
+        + "        execute immediate l_ddls(i).ddltext; "
+        + "      exception when others then "
+        + "        l_failures := l_failures + 1; "
+        + "        l_failed := substr(l_failed || chr(10) || sqlerrm || ': ' || "
+        + "                           dbms_lob.substr(l_ddls(i).ddltext, 120, 1), 1, 3000); "
+        + "      end; "
+        + "    end loop; "
+        + "  end loop; "
+        + "  dbms_metadata.close(l_handle); "
+        + "  if l_failures > 0 then "
+        + "    raise_application_error(-20000, l_failures || ' statements failed provisioning ' || l_worker || ':' || l_failed); "
+        + "  end if; "
+        + "end; ";
+
+    /**
+     * Drops the worker schema, binds the worker schema.
+     */
+    public static final String DEFAULT_TEARDOWN_STATEMENT =
+          "begin execute immediate 'drop user \"' || ? || '\" cascade'; end; ";
+
+    Log log;
+    String templateSchema;
+    String provisionStatement;
+    String teardownStatement;
+
+    /**
+     * @param templateSchema the schema whose objects are copied to each worker
+     * @param provisionStatement PL/SQL creating a worker, null for the default
+     * @param teardownStatement PL/SQL dropping a worker, null for the default
+     * @param log
+     */
+    public WorkerSchemas(String templateSchema,String provisionStatement,String teardownStatement,Log log)
+    {
+        this.templateSchema = templateSchema.toUpperCase();
+        this.provisionStatement = provisionStatement == null ? DEFAULT_PROVISION_STATEMENT : provisionStatement;
+        this.teardownStatement = teardownStatement == null ? DEFAULT_TEARDOWN_STATEMENT : teardownStatement;
+        this.log = log;
+    }
+
+    /**
+     * Creates the worker schema from the template unless it exists and may be recycled. A worker schema
+     * which may not be recycled, for example left behind by a crashed run, is dropped first.
+     *
+     * @param conn a connection allowed to create users
+     * @param worker the worker schema
+     * @param recycle true to keep an existing worker schema
+     * @throws SQLException
+     */
+    public void provision(Connection conn,String worker,boolean recycle) throws SQLException
+    {
+        if (exists(conn, worker))
+        {
+            if (recycle)
+            {
+                log.info("Recycling worker schema " + worker);
+                return;
+            }
+            log.info("Worker schema " + worker + " left by an earlier run");
+            teardown(conn, worker);
+        }
+
+        log.info("Provisioning worker schema " + worker + " from " + templateSchema);
+
+        CallableStatement stmt = conn.prepareCall(provisionStatement);
+        try
+        {
+            stmt.setString(1, worker);
+            stmt.setString(2, templateSchema);
+            stmt.execute();
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Drops the worker schema
+     *
+     * @param conn a connection allowed to drop users
+     * @param worker the worker schema
+     * @throws SQLException
+     */
+    public void teardown(Connection conn,String worker) throws SQLException
+    {
+        log.info("Dropping worker schema " + worker);
+
+        CallableStatement stmt = conn.prepareCall(teardownStatement);
+        try
+        {
+            stmt.setString(1, worker);
+            stmt.execute();
+        } finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Opens a proxy session in the worker schema
+     *
+     * @param url
+     * @param username the proxy user
+     * @param password the password of the proxy user
+     * @param worker the worker schema
+     * @return the connection
+     * @throws SQLException
+     */
+    public Connection connect(String url,String username,String password,String worker) throws SQLException
+    {
+        return DriverManager.getConnection(url, username + "[" + worker + "]", password);
+    }
+
+    private boolean exists(Connection conn,String worker) throws SQLException
+    {
+        PreparedStatement stmt = conn.prepareStatement("select count(*) from all_users where username = ?");
+        try
+        {
+            stmt.setString(1, worker);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+
+            return rs.getInt(1) > 0;
+        } finally
+        {
+            stmt.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.theserverlabs.maven.utplsq;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Writer which escapes text for XML attributes and content in a single pass into the underlying
+ * writer, without building intermediate strings. Characters not allowed in XML 1.0, such as the
+ * control characters found in raw ORA error text, are dropped. Characters outside ASCII are written
+ * as character references so the output is valid whatever the file encoding.
+ *
+ * Markup is written with writeRaw, everything written through the Writer methods is escaped.
+ */
+public class XmlEscapingWriter extends FilterWriter
+{
+    private boolean dropQuotes;
+    private char highSurrogate;
+
+    public XmlEscapingWriter(Writer out)
+    {
+        super(out);
+    }
+
+    /**
+     * Writes markup without escaping
+     *
+     * @param markup
+     * @throws IOException
+     */
+    public void writeRaw(String markup) throws IOException
+    {
+        out.write(markup);
+    }
+
+    /**
+     * Escapes the text, leaving out double quotes to make failure messages more readable
+     *
+     * @param text may be null
+     * @throws IOException
+     */
+    public void writeWithoutQuotes(String text) throws IOException
+    {
+        dropQuotes = true;
+        try
+        {
+            write(text);
+        } finally
+        {
+            dropQuotes = false;
+        }
+    }
+
+    /**
+     * Escapes the text, null is written as nothing
+     */
+    public void write(String str) throws IOException
+    {
+        if (str != null)
+        {
+            write(str, 0, str.length());
+        }
+    }
+
+    public void write(int c) throws IOException
+    {
+        escape((char) c);
+    }
+
+    public void write(char[] cbuf,int off,int len) throws IOException
+    {
+        int start = off;
+        int end = off + len;
+
+        for (int i = off; i < end; i++)
+        {
+            if (needsEscape(cbuf[i]))
+            {
+                // copy the run of plain characters in one go
+                out.write(cbuf, start, i - start);
+                escape(cbuf[i]);
+                start = i + 1;
+            }
+        }
+        out.write(cbuf, start, end - start);
+    }
+
+    public void write(String str,int off,int len) throws IOException
+    {
+        int start = off;
+        int end = off + len;
+
+        for (int i = off; i < end; i++)
+        {
+            if (needsEscape(str.charAt(i)))
+            {
+                out.write(str, start, i - start);
+                escape(str.charAt(i));
+                start = i + 1;
+            }
+        }
+        out.write(str, start, end - start);
+    }
+
+    private boolean needsEscape(char c)
+    {
+        return c < 0x20 || c > 0x7e || c == '&' || c == '<' || c == '>' || c == '"' || c == '\'' || highSurrogate != 0;
+    }
+
+    private void escape(char c) throws IOException
+    {
+        if (highSurrogate != 0)
+        {
+            char high = highSurrogate;
+            highSurrogate = 0;
+
+            if (Character.isLowSurrogate(c))
+            {
+                writeReference(Character.toCodePoint(high, c));
+                return;
+            }
+            // an unpaired high surrogate is not a character, drop it
+        }
+
+        switch (c)
+        {
+        case '&':
+            out.write("&amp;");
+            break;
+        case '<':
+            out.write("&lt;");
+            break;
+        case '>':
+            out.write("&gt;");
+            break;
+        case '"':
+            if (!dropQuotes)
+            {
+                out.write("&quot;");
+            }
+            break;
+        case '\'':
+            out.write("&apos;");
+            break;
+        case '\t':
+        case '\n':
+        case '\r':
+            out.write(c);
+            break;
+        default:
+            if (Character.isHighSurrogate(c))
+            {
+                highSurrogate = c;
+            }
+            else if (c >= 0x20 && c <= 0x7e)
+            {
+                out.write(c);
+            }
+            else if ((c >= 0x7f && c <= 0xd7ff) || (c >= 0xe000 && c <= 0xfffd))
+            {
+                writeReference(c);
+            }
+            // anything else is not allowed in XML 1.0 and dropped
+        }
+    }
+
+    private void writeReference(int codePoint) throws IOException
+    {
+        out.write("&#");
+        out.write(Integer.toString(codePoint));
+        out.write(';');
+    }
+}
@@ -0,0 +1,77 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.theserverlabs.maven.utplsq.AdaptiveLimiter;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * Unit tests for the AdaptiveLimiter class. 
+ *
+ */
+public class AdaptiveLimiterTest extends TestCase {
+
+    private void run(AdaptiveLimiter limiter, long latency, boolean failed) throws Exception {
+        limiter.acquire();
+        limiter.release(latency, failed);
+    }
+
+    public void testGrowsWhileHealthy() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 4, 2.0, new SystemStreamLog());
+        assertEquals(1, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            run(limiter, 1000, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    public void testHalvesOnSlowdownOrError() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8, 2.0, new SystemStreamLog());
+
+        for (int i = 0; i < 50; i++) {
+            run(limiter, 1000, false);
+        }
+        assertEquals(8, limiter.getLimit());
+
+        run(limiter, 5000, false);
+        assertEquals(4, limiter.getLimit());
+
+        // runs already in flight don't halve it again
+        run(limiter, 5000, false);
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 4; i++) {
+            run(limiter, 1000, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    public void testClosesSessionsOverLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 2, 2.0, new SystemStreamLog());
+
+        limiter.sessionOpened();
+        limiter.sessionOpened();
+        assertFalse(limiter.releaseSession());
+
+        limiter.sessionOpened();
+        assertTrue(limiter.releaseSession());
+        assertFalse(limiter.releaseSession());
+    }
+}
@@ -0,0 +1,37 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.theserverlabs.maven.utplsq.FixtureIsolation;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * Unit tests for the FixtureIsolation class.
+ *
+ */
+public class FixtureIsolationTest extends TestCase {
+
+    public void testTestPackage() {
+        FixtureIsolation isolation = new FixtureIsolation(FixtureIsolation.SAVEPOINT, null, "ut_", new SystemStreamLog());
+
+        assertEquals("ut_betwnstr", isolation.getTestPackage("betwnstr", "test"));
+        assertEquals("scott.ut_betwnstr", isolation.getTestPackage("scott.betwnstr", "test"));
+        assertEquals("scott.ut_betwnstr", isolation.getTestPackage("scott.ut_betwnstr", "run"));
+    }
+}
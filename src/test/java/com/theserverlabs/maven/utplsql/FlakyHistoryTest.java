@@ -0,0 +1,67 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+import com.theserverlabs.maven.utplsq.FlakyHistory;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * Unit tests for the FlakyHistory class.
+ *
+ */
+public class FlakyHistoryTest extends TestCase {
+
+    File historyFile;
+
+    protected void setUp() throws Exception {
+        historyFile = File.createTempFile("utplsql-flaky", ".properties");
+        historyFile.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        historyFile.delete();
+    }
+
+    public void testFlakyRate() throws Exception {
+        FlakyHistory history = new FlakyHistory(historyFile);
+        assertEquals(0, history.getFlakyRate("betwnstr"));
+
+        history.record("betwnstr", false);
+        history.record("betwnstr", true);
+        history.record("betwnstr", false);
+        history.record("betwnstr", false);
+
+        assertEquals(4, history.getRuns("betwnstr"));
+        assertEquals(1, history.getFlakyRuns("betwnstr"));
+        assertEquals(25, history.getFlakyRate("betwnstr"));
+        assertEquals(0, history.getRuns("mybooks_pkg"));
+    }
+
+    public void testSavedAcrossBuilds() throws Exception {
+        FlakyHistory history = new FlakyHistory(historyFile);
+        history.record("betwnstr", true);
+        history.save();
+
+        history = new FlakyHistory(historyFile);
+        history.record("betwnstr", false);
+
+        assertEquals(2, history.getRuns("betwnstr"));
+        assertEquals(50, history.getFlakyRate("betwnstr"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.theserverlabs.maven.utplsq.PackageDiscovery;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * Unit tests for the PackageDiscovery class.
+ *
+ */
+public class PackageDiscoveryTest extends TestCase {
+
+    public void testIncludesOnly() {
+        PackageDiscovery discovery = new PackageDiscovery(new String[] { "UT_%" }, null);
+
+        assertEquals("select object_name from user_objects where object_type = 'PACKAGE' and " +
+                     "(object_name like upper(?) escape '\\') order by object_name", discovery.getQuery());
+    }
+
+    public void testIncludesAndExcludes() {
+        PackageDiscovery discovery = new PackageDiscovery(new String[] { "UT_%", "TEST\\_%" }, new String[] { "UT_SLOW%" });
+
+        assertEquals("select object_name from user_objects where object_type = 'PACKAGE' and " +
+                     "(object_name like upper(?) escape '\\' or object_name like upper(?) escape '\\')" +
+                     " and object_name not like upper(?) escape '\\' order by object_name", discovery.getQuery());
+    }
+
+    public void testPrefixStripped() {
+        PackageDiscovery discovery = new PackageDiscovery(new String[] { "UT_%", "TEST\\_%" }, null);
+        List names = discovery.toPackageNames(Arrays.asList(new String[] { "TEST_UTIL", "UT_BETWNSTR", "UT_MYBOOKS_PKG" }), "ut_");
+
+        assertEquals(Arrays.asList(new String[] { "BETWNSTR", "MYBOOKS_PKG" }), names);
+        assertEquals(Arrays.asList(new String[] { "TEST_UTIL" }), discovery.getSkipped());
+    }
+
+    public void testRunKeepsNames() {
+        PackageDiscovery discovery = new PackageDiscovery(new String[] { "TEST\\_%" }, null);
+        List names = discovery.toPackageNames(Arrays.asList(new String[] { "TEST_UTIL" }), null);
+
+        assertEquals(Arrays.asList(new String[] { "TEST_UTIL" }), names);
+        assertTrue(discovery.getSkipped().isEmpty());
+    }
+}
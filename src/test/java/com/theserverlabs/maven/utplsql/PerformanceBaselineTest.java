@@ -0,0 +1,77 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.theserverlabs.maven.utplsq.PerformanceBaseline;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * Unit tests for the PerformanceBaseline class. 
+ *
+ */
+public class PerformanceBaselineTest extends TestCase {
+
+    PerformanceBaseline baseline = new PerformanceBaseline();
+
+    public void testMedianKeepsLatestRuns() throws Exception {
+        assertEquals(-1, baseline.getMedian("betwnstr"));
+
+        baseline.add("betwnstr", 9000, 3);
+        baseline.add("betwnstr", 1000, 3);
+        baseline.add("betwnstr", 1200, 3);
+        assertEquals(1200, baseline.getMedian("betwnstr"));
+
+        // the oldest run drops out
+        baseline.add("betwnstr", 1100, 3);
+        assertEquals(1100, baseline.getMedian("betwnstr"));
+
+        baseline.add("betwnstr", 1300, 4);
+        assertEquals(1150, baseline.getMedian("betwnstr"));
+    }
+
+    public void testCompare() throws Exception {
+        baseline.add("betwnstr", 1000, 5);
+        baseline.add("mybooks_pkg", 10000, 5);
+        baseline.add("util", 100, 5);
+
+        Map durations = new LinkedHashMap();
+        durations.put("betwnstr", Long.valueOf(2000));
+        durations.put("mybooks_pkg", Long.valueOf(30000));
+        // noise, not over the minimum delta
+        durations.put("util", Long.valueOf(400));
+        // no baseline yet
+        durations.put("newpkg", Long.valueOf(5000));
+
+        List slowdowns = baseline.compare(durations, 50, 500);
+        assertEquals(2, slowdowns.size());
+        assertEquals("mybooks_pkg", ((PerformanceBaseline.Slowdown) slowdowns.get(0)).getName());
+        assertEquals("betwnstr", ((PerformanceBaseline.Slowdown) slowdowns.get(1)).getName());
+    }
+
+    public void testWithinTolerance() throws Exception {
+        baseline.add("betwnstr", 10000, 5);
+
+        Map durations = new LinkedHashMap();
+        durations.put("betwnstr", Long.valueOf(14000));
+
+        assertTrue(baseline.compare(durations, 50, 500).isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+
+import com.theserverlabs.maven.utplsq.RunCheckpoint;
+import com.theserverlabs.maven.utplsq.TestResults;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * Unit tests for the RunCheckpoint class.
+ *
+ */
+public class RunCheckpointTest extends TestCase {
+
+    File checkpointFile;
+    File report;
+
+    protected void setUp() throws Exception {
+        checkpointFile = File.createTempFile("utplsql-checkpoint", ".properties");
+        report = File.createTempFile("utplsql-betwnstr", "-report.xml");
+        FileUtils.writeStringToFile(report,
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>" +
+                "\n<testsuite name=\"betwnstr\" tests=\"1\" failures=\"0\" time=\"10msec\">" +
+                "\n   <testcase classname=\"BETWNSTR\" name=\"normal\" time=\"0\"></testcase>" +
+                "\n</testsuite>");
+    }
+
+    protected void tearDown() throws Exception {
+        checkpointFile.delete();
+        report.delete();
+    }
+
+    public void testResumed() throws Exception {
+        RunCheckpoint checkpoint = new RunCheckpoint(checkpointFile);
+        checkpoint.clear();
+
+        TestResults testResults = new TestResults();
+        testResults.incSuccessCounter();
+        testResults.setRunId(41);
+        checkpoint.record("betwnstr", testResults, report);
+
+        // recorded again by a re-run, the later entry wins
+        testResults.setRunId(42);
+        checkpoint.record("betwnstr", testResults, report);
+
+        TestResults restored = new RunCheckpoint(checkpointFile).restore("betwnstr");
+        assertNotNull(restored);
+        assertEquals(1, restored.getTestsRun());
+        assertEquals(42, restored.getRunId());
+        assertNull(new RunCheckpoint(checkpointFile).restore("mybooks_pkg"));
+
+        checkpoint.clear();
+        assertNull(new RunCheckpoint(checkpointFile).restore("betwnstr"));
+    }
+}
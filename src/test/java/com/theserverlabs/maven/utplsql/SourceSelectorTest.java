@@ -0,0 +1,79 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.theserverlabs.maven.utplsq.SourceSelector;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * Unit tests for the SourceSelector class. 
+ *
+ */
+public class SourceSelectorTest extends TestCase {
+
+    public void testPackageHeaders() throws Exception {
+        Set names = SourceSelector.parseDefinedNames(
+                        "CREATE OR REPLACE PACKAGE betwnstr IS\n  FUNCTION f RETURN NUMBER;\nEND;\n/\n" +
+                        "create or replace package body \"UTIL\".\"Mybooks_Pkg\" as\nend;\n/\n");
+        assertEquals(2, names.size());
+        assertTrue(names.contains("BETWNSTR"));
+        assertTrue(names.contains("MYBOOKS_PKG"));
+    }
+
+    public void testOtherObjects() throws Exception {
+        Set names = SourceSelector.parseDefinedNames(
+                        "create procedure util . do_it as begin null; end;\n" +
+                        "CREATE OR REPLACE EDITIONABLE FUNCTION calc$total RETURN NUMBER IS BEGIN RETURN 0; END;\n" +
+                        "CREATE OR REPLACE TYPE BODY money_t AS END;");
+        assertTrue(names.contains("DO_IT"));
+        assertTrue(names.contains("CALC$TOTAL"));
+        assertTrue(names.contains("MONEY_T"));
+    }
+
+    public void testCommentedHeaders() throws Exception {
+        Set names = SourceSelector.parseDefinedNames(
+                        "-- create or replace package old_api is\n" +
+                        "/* CREATE PACKAGE draft_pkg IS\n END; */\n" +
+                        "create or replace package util as\n" +
+                        "  c_note constant varchar2(40) := '-- create package not_code';\nend;\n");
+        assertEquals(1, names.size());
+        assertTrue(names.contains("UTIL"));
+    }
+
+        public void testNoHeader() throws Exception {
+        assertTrue(SourceSelector.parseDefinedNames("insert into mybooks values (1);").isEmpty());
+    }
+
+    public void testSelect() throws Exception {
+        Set changed = new HashSet();
+        changed.add("BETWNSTR");
+        changed.add("UT_MYBOOKS_PKG");
+
+        String[] selected = SourceSelector.select(new String[] { "mybooks_pkg", "util", "betwnstr" }, changed, "ut_");
+        assertEquals(2, selected.length);
+        assertEquals("mybooks_pkg", selected[0]);
+        assertEquals("betwnstr", selected[1]);
+
+        changed.add("TEST_UTIL");
+        selected = SourceSelector.select(new String[] { "mybooks_pkg", "util" }, changed, "test_");
+        assertEquals(1, selected.length);
+        assertEquals("util", selected[0]);
+    }
+}
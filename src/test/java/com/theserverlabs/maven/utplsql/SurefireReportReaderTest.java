@@ -0,0 +1,67 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+
+import com.theserverlabs.maven.utplsq.DescContainer;
+import com.theserverlabs.maven.utplsq.SurefireReportReader;
+import com.theserverlabs.maven.utplsq.TestResults;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * Unit tests for the SurefireReportReader class. 
+ *
+ */
+public class SurefireReportReaderTest extends TestCase {
+
+    public void testRead() throws Exception {
+        File report = File.createTempFile("utplsql-betwnstr", "-report.xml");
+        try {
+            FileUtils.writeStringToFile(report, 
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>" +
+                    "\n<testsuite name=\"betwnstr\" tests=\"3\" failures=\"1\" skipped=\"0\" errors=\"0\" time=\"120msec\">" +
+                    "\n   <testcase classname=\"BETWNSTR\" name=\"normal\" time=\"0\"></testcase>" +
+                    "\n   <testcase classname=\"BETWNSTR\" name=\"zero start\" time=\"0\">" +
+                    "\n       <flakyFailure type=\"EQ\" message=\"Expected abc\"/>\n   </testcase>" +
+                    "\n   <testcase classname=\"BETWNSTR\" name=\"null end\" time=\"0\">" +
+                    "\n       <failure type=\"ISNULL\" message=\"Expected &lt;null&gt;\"/>\n   </testcase>" +
+                    "\n</testsuite>");
+
+            TestResults testResults = SurefireReportReader.read(report);
+
+            assertEquals(3, testResults.getTestsRun());
+            assertEquals(1, testResults.getFailures());
+            assertEquals(1, testResults.getFlakes());
+            assertEquals(Long.valueOf(120), testResults.getDurations().get("betwnstr"));
+
+            DescContainer dc = (DescContainer) testResults.getFailedTests().get(0);
+            assertEquals("null end", dc.getTestName());
+            assertEquals("ISNULL", dc.getType());
+            assertEquals("Expected <null>", dc.getResults());
+
+            String testXML = testResults.getTestXML().toString();
+            assertTrue(testXML.indexOf("name=\"normal\" time=\"0\"></testcase>") >= 0);
+            assertTrue(testXML.indexOf("<flakyFailure type=\"EQ\" message=\"Expected abc\"/>") >= 0);
+            assertTrue(testXML.indexOf("<failure type=\"ISNULL\" message=\"Expected &lt;null&gt;\"/>") >= 0);
+        } finally {
+            report.delete();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.theserverlabs.maven.utplsq.DbmsOutput;
+import com.theserverlabs.maven.utplsq.UtplsqlRunner;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * Unit tests for the UtplsqlRunner class.
+ *
+ */
+public class UtplsqlRunnerTest extends TestCase {
+
+    /**
+     * A runner whose protected package run the tests can call
+     */
+    static class Runner extends UtplsqlRunner {
+        Runner() {
+            super(new File(System.getProperty("java.io.tmpdir")), new SystemStreamLog());
+        }
+
+        void run(Connection conn) throws Exception {
+            runPackage(conn, "betwnstr", "test", "FALSE");
+        }
+    }
+
+    /**
+     * @return a connection which fails every call as if the database went away
+     */
+    private Connection lostConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        throw new SQLRecoverableException("No more data to read from socket", "08006", 17410);
+                    }
+                });
+    }
+
+    public void testConnectionLostPreparingCall() throws Exception {
+        try {
+            new Runner().run(lostConnection());
+            fail("expected the lost connection to be reported");
+        } catch (SQLException e) {
+            assertEquals(17410, e.getErrorCode());
+        }
+    }
+
+    public void testConnectionLostEnablingOutput() throws Exception {
+        Runner runner = new Runner();
+        runner.setDbmsOutput(new DbmsOutput(100, 1000));
+        try {
+            runner.run(lostConnection());
+            fail("expected the lost connection to be reported");
+        } catch (SQLException e) {
+            assertEquals(17410, e.getErrorCode());
+        }
+    }
+}
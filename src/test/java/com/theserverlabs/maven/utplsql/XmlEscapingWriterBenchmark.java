@@ -0,0 +1,79 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.theserverlabs.maven.utplsq.XmlEscapingWriter;
+
+/**
+ * 
+ * Compares the XmlEscapingWriter with the StringUtils.remove and StringEscapeUtils.escapeXml path
+ * SureFireReport used before, on typical failure messages. Not run by the build, run the main method:
+ * 
+ * mvn test-compile exec:java -Dexec.mainClass=com.theserverlabs.maven.utplsql.XmlEscapingWriterBenchmark -Dexec.classpathScope=test
+ *
+ */
+public class XmlEscapingWriterBenchmark {
+
+    private static final String[] MESSAGES = {
+        "Expected \"abc\" and got \"ab\"",
+        "Query \"select count(*) from mybooks where book_id=100\" returned value \"0\" that does match \"0\"",
+        "ORA-06550 line 1, column 90\nPL/SQL ORA-00942 table or view does not exist\nORA-06512 at \"UTP.UTASSERT2\", line 152",
+        "Teardown complete"
+    };
+
+    private static final int ROUNDS = 10;
+    private static final int MESSAGES_PER_ROUND = 200000;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            long commons = commonsLang();
+            long writer = escapingWriter();
+
+            System.out.println("round " + round + ": commons-lang " + commons + "ms, XmlEscapingWriter " + writer + "ms");
+        }
+    }
+
+    private static long commonsLang() {
+        StringBuffer sb = new StringBuffer();
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < MESSAGES_PER_ROUND; i++) {
+            sb.append(StringEscapeUtils.escapeXml(StringUtils.remove(MESSAGES[i % MESSAGES.length], '"')));
+            if (sb.length() > 1 << 20) {
+                sb.setLength(0);
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long escapingWriter() throws Exception {
+        StringWriter sw = new StringWriter();
+        XmlEscapingWriter xml = new XmlEscapingWriter(sw);
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < MESSAGES_PER_ROUND; i++) {
+            xml.writeWithoutQuotes(MESSAGES[i % MESSAGES.length]);
+            if (sw.getBuffer().length() > 1 << 20) {
+                sw.getBuffer().setLength(0);
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,74 @@
+package com.theserverlabs.maven.utplsql;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.theserverlabs.maven.utplsq.XmlEscapingWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * Unit tests for the XmlEscapingWriter class. 
+ *
+ */
+public class XmlEscapingWriterTest extends TestCase {
+
+    private String escape(String text) throws Exception {
+        StringWriter sw = new StringWriter();
+        new XmlEscapingWriter(sw).write(text);
+        return sw.toString();
+    }
+
+    public void testSameAsCommonsLang() throws Exception {
+        String text = "EQ \"zero start\" Expected <abc> & got 'ab' \u00e9t\u00e9 \u20ac";
+        assertEquals(StringEscapeUtils.escapeXml(text), escape(text));
+    }
+
+    public void testWithoutQuotes() throws Exception {
+        String text = "Query \"select count(*) from mybooks where book_id=100\" returned value \"0\" < 1";
+        StringWriter sw = new StringWriter();
+        new XmlEscapingWriter(sw).writeWithoutQuotes(text);
+        assertEquals(StringEscapeUtils.escapeXml(StringUtils.remove(text, '"')), sw.toString());
+    }
+
+    public void testIllegalCharactersDropped() throws Exception {
+        assertEquals("ORA-06550 line 1\ncolumn 90\t", escape("ORA-06550\u0000 line 1\u0007\ncolumn 90\u001b\t\ufffe"));
+    }
+
+    public void testSurrogates() throws Exception {
+        // a pair is one character, a lone surrogate is dropped
+        assertEquals("a&#128512;b", escape("a\ud83d\ude00b"));
+        assertEquals("ab", escape("a\ud83db"));
+        assertEquals("ab", escape("a\ude00b"));
+    }
+
+    public void testMarkupNotEscaped() throws Exception {
+        StringWriter sw = new StringWriter();
+        XmlEscapingWriter xml = new XmlEscapingWriter(sw);
+        xml.writeRaw("<failure message=\"");
+        xml.write("a<b");
+        xml.writeRaw("\"/>");
+        assertEquals("<failure message=\"a&lt;b\"/>", sw.toString());
+    }
+
+    public void testNull() throws Exception {
+        assertEquals("", escape(null));
+    }
+}